@@ -0,0 +1,71 @@
+package es.udc.fi.tfg.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.index.BenchCorpus;
+import es.udc.fi.tfg.util.Utility;
+
+/**
+ * Cost of turning a topic into a query: age parsing, topic demographics extraction and query build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final String[] AGES = { "18 years", "6 months", "2 weeks", "65 years", "n/a", "58 year",
+            "3 month", "30 days" };
+
+    private List<Topic> topics;
+    private QueryParser parser;
+    private int next;
+
+    @Setup
+    public void setup() throws XMLStreamException {
+        topics = new ArrayList<>(SearchEvalHelper.parseTopics(BenchCorpus.resource("topics.xml")));
+        parser = SearchEval.createParser();
+    }
+
+    @Benchmark
+    public double normalizeAge() {
+        return Utility.normalizeAge(AGES[next++ % AGES.length]);
+    }
+
+    @Benchmark
+    public int ageInMonths() {
+        return Utility.ageInMonths(AGES[next++ % AGES.length]);
+    }
+
+    @Benchmark
+    public Topic createTopic() {
+        final Topic topic = topics.get(next++ % topics.size());
+        return new Topic(String.valueOf(topic.getId()), topic.getDescription());
+    }
+
+    @Benchmark
+    public Query getQuery() throws ParseException {
+        return SearchEval.getQuery(topics.get(next++ % topics.size()), parser);
+    }
+}
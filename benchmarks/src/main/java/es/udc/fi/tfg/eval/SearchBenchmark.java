@@ -0,0 +1,81 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.eval.SearchEval.TopicResult;
+import es.udc.fi.tfg.index.BenchCorpus;
+import es.udc.fi.tfg.util.Parameters;
+
+/**
+ * End-to-end latency of a topic: query build, search, hit materialization and run formatting, over an in-memory
+ * index built from the bundled corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    /** Copies of every bundled trial in the index. */
+    @Param({ "100", "1000" })
+    public int copies;
+
+    private Directory dir;
+    private DirectoryReader reader;
+    private SearchContext context;
+    private List<Topic> topics;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final QueryParser parser = SearchEval.createParser();
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, XMLStreamException {
+        dir = BenchCorpus.buildIndex(copies);
+        reader = DirectoryReader.open(dir);
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(Parameters.SIMILARITY);
+        context = SearchContext.create(searcher);
+        topics = new ArrayList<>(SearchEvalHelper.parseTopics(BenchCorpus.resource("topics.xml")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        dir.close();
+    }
+
+    @Benchmark
+    public TopicResult processTopic(final ThreadState state) throws IOException, ParseException {
+        return SearchEval.processTopic(topics.get(state.next++ % topics.size()), state.parser, context);
+    }
+}
@@ -0,0 +1,114 @@
+package es.udc.fi.tfg.index;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analyzer throughput over the text of a trial, with and without synonym expansion, and cost of loading the bundled
+ * synonym dictionary from its text and from its compiled FST.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+    private List<String> texts;
+    private Analyzer plain;
+    private Analyzer indexing;
+    private Analyzer search;
+    private Path compiled;
+    private int next;
+
+    @Setup
+    public void setup() throws XMLStreamException, IOException, ParseException {
+        texts = BenchCorpus.trials().stream()
+                .flatMap(trial -> Stream.of(trial.criteria(), trial.summary(), trial.description()))
+                .filter(Objects::nonNull)
+                .toList();
+
+        final SynonymMap synonyms = parseSynonyms();
+        plain = new TrialAnalyzer(null, true);
+        indexing = new TrialAnalyzer(synonyms, true);
+        search = new TrialAnalyzer(synonyms, false);
+
+        compiled = Files.createTempFile("synonyms", ".fst");
+        SynonymDictionary.write(synonyms, 0, compiled);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        plain.close();
+        indexing.close();
+        search.close();
+        Files.deleteIfExists(compiled);
+    }
+
+    @Benchmark
+    public int analyzePlain() throws IOException {
+        return countTokens(plain);
+    }
+
+    @Benchmark
+    public int analyzeIndexing() throws IOException {
+        return countTokens(indexing);
+    }
+
+    @Benchmark
+    public int analyzeSearch() throws IOException {
+        return countTokens(search);
+    }
+
+    @Benchmark
+    public SynonymMap parseSynonyms() throws IOException, ParseException {
+        try (final Reader reader = new InputStreamReader(BenchCorpus.resource("synonyms.txt"),
+                StandardCharsets.UTF_8)) {
+            return SynonymDictionary.parse(reader);
+        }
+    }
+
+    @Benchmark
+    public SynonymMap readSynonyms() throws IOException {
+        return SynonymDictionary.read(compiled, 0);
+    }
+
+    private int countTokens(final Analyzer analyzer) throws IOException {
+        int tokens = 0;
+        try (final TokenStream stream = analyzer.tokenStream(TrialFields.CRITERIA, texts.get(next++ % texts.size()))) {
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens++;
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+}
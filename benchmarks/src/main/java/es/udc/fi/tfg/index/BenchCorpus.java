@@ -0,0 +1,115 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.util.Parameters.SIMILARITY;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import es.udc.fi.tfg.data.Trial;
+
+/**
+ * Synthetic corpus bundled with the benchmarks, so every run measures the same input regardless of the machine.
+ */
+public class BenchCorpus {
+
+    private static final String CORPUS = "/corpus/";
+
+    private BenchCorpus() {
+    }
+
+    /**
+     * Raw XML of every bundled trial.
+     *
+     * @return the trials, as read from disk.
+     */
+    public static List<byte[]> trialXmls() {
+
+        final List<byte[]> xmls = new ArrayList<>();
+
+        try (final BufferedReader names = new BufferedReader(
+                new InputStreamReader(resource("trials.txt"), StandardCharsets.UTF_8))) {
+            String name;
+            while ((name = names.readLine()) != null) {
+                if (!name.isBlank()) {
+                    try (final InputStream xml = resource(name.trim())) {
+                        xmls.add(xml.readAllBytes());
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return xmls;
+    }
+
+    /**
+     * Every bundled trial, parsed.
+     *
+     * @return the trials.
+     */
+    public static List<Trial> trials() throws XMLStreamException {
+
+        final TrialParser parser = new TrialParser();
+        final List<Trial> trials = new ArrayList<>();
+
+        for (final byte[] xml : trialXmls()) {
+            trials.add(parser.parse(ByteBuffer.wrap(xml)));
+        }
+
+        return trials;
+    }
+
+    /**
+     * Build an in-memory index holding the given number of copies of every bundled trial, each copy under its own
+     * <code>nct_id</code>.
+     *
+     * @param copies
+     *            copies of each trial.
+     * @return the index.
+     */
+    public static Directory buildIndex(final int copies) throws IOException, XMLStreamException {
+
+        final Directory dir = new ByteBuffersDirectory();
+        final List<Trial> trials = trials();
+
+        final IndexWriterConfig iwc = new IndexWriterConfig(TrialAnalyzer.forIndexing());
+        iwc.setSimilarity(SIMILARITY);
+
+        try (final IndexWriter writer = new IndexWriter(dir, iwc)) {
+            for (int copy = 0; copy < copies; copy++) {
+                for (final Trial t : trials) {
+                    final Trial trial = new Trial(t.nctId() + "-" + copy, t.criteria(), t.inclusion(),
+                            t.exclusion(), t.summary(), t.description(), t.gender(), t.minAge(), t.maxAge(),
+                            t.keywords());
+                    writer.addDocument(IndexerThread.createDocument(trial));
+                }
+            }
+            writer.forceMerge(1);
+        }
+
+        return dir;
+    }
+
+    public static InputStream resource(final String name) {
+        final InputStream input = BenchCorpus.class.getResourceAsStream(CORPUS + name);
+        if (input == null) {
+            throw new IllegalStateException("Missing benchmark resource " + CORPUS + name);
+        }
+        return input;
+    }
+}
@@ -0,0 +1,56 @@
+package es.udc.fi.tfg.index;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.udc.fi.tfg.data.Trial;
+
+/**
+ * Per-trial cost of the parse and document build stages of the indexing pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark {
+
+    private List<ByteBuffer> xmls;
+    private List<Trial> trials;
+    private TrialParser parser;
+    private int next;
+
+    @Setup
+    public void setup() throws XMLStreamException {
+        xmls = BenchCorpus.trialXmls().stream().map(ByteBuffer::wrap).toList();
+        trials = BenchCorpus.trials();
+        parser = new TrialParser();
+    }
+
+    @Benchmark
+    public Trial parseXml() throws XMLStreamException {
+        final ByteBuffer xml = xmls.get(next++ % xmls.size()).duplicate();
+        return parser.parse(xml);
+    }
+
+    @Benchmark
+    public Document createDocument() {
+        return IndexerThread.createDocument(trials.get(next++ % trials.size()));
+    }
+}
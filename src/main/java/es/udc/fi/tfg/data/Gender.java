@@ -0,0 +1,39 @@
+package es.udc.fi.tfg.data;
+
+/**
+ * Gender eligibility of a trial, indexed as a compact numeric code.
+ */
+public enum Gender {
+
+    ALL(0), MALE(1), FEMALE(2);
+
+    private final int code;
+
+    Gender(final int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Parse the gender of a trial record.
+     *
+     * @param gender
+     *            value of the <code>gender</code> element, in any case.
+     * @return the gender, {@link #ALL} if missing or unknown.
+     */
+    public static Gender fromTrial(final String gender) {
+        if (gender == null) {
+            return ALL;
+        }
+        if (gender.equalsIgnoreCase("male")) {
+            return MALE;
+        }
+        if (gender.equalsIgnoreCase("female")) {
+            return FEMALE;
+        }
+        return ALL;
+    }
+}
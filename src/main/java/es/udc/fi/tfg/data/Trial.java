@@ -1,34 +1,17 @@
 package es.udc.fi.tfg.data;
 
-import static es.udc.fi.tfg.util.Parameters.INDEX_KEYWORDS;
-
 import java.util.Collection;
 
-public record Trial(String nctId, String criteria, String summary, String description, String gender, String minAge,
-        String maxAge,
-        Collection<String> keywords) {
-
-    @Override
-    public String toString() {
-
-        final StringBuilder sb = new StringBuilder();
-
-        if (criteria != null) {
-            sb.append(criteria).append("\n");
-        }
-
-        if (summary != null) {
-            sb.append(summary).append("\n");
-        }
-
-        if (description != null) {
-            sb.append(description).append("\n");
-        }
-
-        if (keywords != null && INDEX_KEYWORDS) {
-            sb.append(String.join(", ", keywords)).append("\n");
-        }
-
-        return sb.toString();
-    }
+/**
+ * A parsed trial record.
+ *
+ * @param criteria
+ *            the whole eligibility criteria.
+ * @param inclusion
+ *            the inclusion criteria, the whole criteria if they are not split in sections.
+ * @param exclusion
+ *            the exclusion criteria, null if there are none.
+ */
+public record Trial(String nctId, String criteria, String inclusion, String exclusion, String summary,
+        String description, String gender, String minAge, String maxAge, Collection<String> keywords) {
 }
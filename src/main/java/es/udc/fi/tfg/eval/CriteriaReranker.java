@@ -0,0 +1,174 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryRescorer;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+import es.udc.fi.tfg.index.TrialFields;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * Second retrieval stage over the eligibility criteria. Only the top first-stage hits are scored, against the
+ * inclusion and exclusion sections of the criteria: matching an inclusion criterion raises a trial, matching an
+ * exclusion criterion sinks it. The rescored candidates stay above the rest of the hits, whose ranking is kept. Thread
+ * safe.
+ */
+public class CriteriaReranker {
+
+    private static final Histogram RERANK_TIME = Metrics.histogram("search.rerank");
+    private static final LongAdder OVER_BUDGET = Metrics.counter("search.rerank_over_budget");
+
+    private static final CharArraySet STOP_WORDS = EnglishAnalyzer.ENGLISH_STOP_WORDS_SET;
+
+    private final IndexSearcher searcher;
+    private final Analyzer analyzer;
+    private final int depth;
+    private final float inclusionWeight;
+    private final float exclusionPenalty;
+    private final long budgetNanos;
+
+    /**
+     * @param searcher
+     *            the searcher whose hits are rescored.
+     * @param analyzer
+     *            analyzer of the criteria fields.
+     * @param depth
+     *            number of top hits rescored.
+     * @param inclusionWeight
+     *            weight of the inclusion score added to the first-stage score.
+     * @param exclusionPenalty
+     *            weight of the exclusion score subtracted from it.
+     * @param budgetMillis
+     *            time a topic may spend in the re-ranking, past which it keeps the first-stage ranking.
+     */
+    public CriteriaReranker(final IndexSearcher searcher, final Analyzer analyzer, final int depth,
+            final float inclusionWeight, final float exclusionPenalty, final long budgetMillis) {
+        this.searcher = searcher;
+        this.analyzer = analyzer;
+        this.depth = depth;
+        this.inclusionWeight = inclusionWeight;
+        this.exclusionPenalty = exclusionPenalty;
+        this.budgetNanos = budgetMillis * 1_000_000;
+    }
+
+    /**
+     * Rerank the top hits of a patient description by its eligibility.
+     *
+     * @param description
+     *            the patient description.
+     * @param hits
+     *            the first-stage hits.
+     * @return the reranked hits, or the first-stage ones if the budget ran out.
+     */
+    public TopDocs rerank(final String description, final TopDocs hits) throws IOException {
+
+        final long start = System.nanoTime();
+        final long deadline = start + budgetNanos;
+
+        try {
+            final Map<String, Integer> frequencies = analyze(description);
+            final int n = Math.min(depth, hits.scoreDocs.length);
+            if (frequencies.isEmpty() || n == 0) {
+                return hits;
+            }
+
+            final TopDocs candidates = new TopDocs(hits.totalHits, Arrays.copyOf(hits.scoreDocs, n));
+
+            // Each pass only advances to the candidates, in doc id order, never over the rest of the collection.
+            final TopDocs included = rescore(candidates, query(TrialFields.INCLUSION, frequencies), inclusionWeight);
+            if (System.nanoTime() > deadline) {
+                OVER_BUDGET.increment();
+                return hits;
+            }
+            final TopDocs reranked = rescore(included, query(TrialFields.EXCLUSION, frequencies), -exclusionPenalty);
+            if (System.nanoTime() > deadline) {
+                OVER_BUDGET.increment();
+                return hits;
+            }
+
+            return merge(hits, reranked.scoreDocs);
+
+        } finally {
+            RERANK_TIME.recordSince(start);
+        }
+    }
+
+    private TopDocs rescore(final TopDocs candidates, final Query query, final float weight) throws IOException {
+        return new QueryRescorer(query) {
+            @Override
+            protected float combine(final float firstPassScore, final boolean secondPassMatches,
+                    final float secondPassScore) {
+                return secondPassMatches ? firstPassScore + weight * secondPassScore : firstPassScore;
+            }
+        }.rescore(searcher, candidates, candidates.scoreDocs.length);
+    }
+
+    /**
+     * Put the reranked candidates on top of the rest of the first-stage hits. Scores are written to the run, so the
+     * candidates are shifted if needed to keep them strictly above the rest.
+     */
+    private static TopDocs merge(final TopDocs hits, final ScoreDoc[] reranked) {
+
+        final ScoreDoc[] merged = Arrays.copyOf(reranked, hits.scoreDocs.length);
+        final int n = reranked.length;
+        if (n < merged.length) {
+            System.arraycopy(hits.scoreDocs, n, merged, n, merged.length - n);
+            final float floor = merged[n].score;
+            final float last = reranked[n - 1].score;
+            if (last <= floor) {
+                // Strictly above, or ties with the rest would be broken by nct_id across the boundary.
+                float shift = Math.nextUp(floor - last);
+                while (last + shift <= floor) {
+                    shift += Math.ulp(floor);
+                }
+                for (int i = 0; i < n; i++) {
+                    merged[i] = new ScoreDoc(reranked[i].doc, reranked[i].score + shift, reranked[i].shardIndex);
+                }
+            }
+        }
+        return new TopDocs(hits.totalHits, merged);
+    }
+
+    private Map<String, Integer> analyze(final String text) throws IOException {
+        final Map<String, Integer> frequencies = new HashMap<>();
+        try (final TokenStream stream = analyzer.tokenStream(TrialFields.INCLUSION, text)) {
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (!STOP_WORDS.contains(termAtt.buffer(), 0, termAtt.length())) {
+                    frequencies.merge(termAtt.toString(), 1, Integer::sum);
+                }
+            }
+            stream.end();
+        }
+        return frequencies;
+    }
+
+    private static Query query(final String field, final Map<String, Integer> frequencies) {
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        frequencies.forEach((term, frequency) -> {
+            final Query termQuery = new TermQuery(new Term(field, term));
+            builder.add(frequency == 1 ? termQuery : new BoostQuery(termQuery, frequency), BooleanClause.Occur.SHOULD);
+        });
+        return builder.build();
+    }
+}
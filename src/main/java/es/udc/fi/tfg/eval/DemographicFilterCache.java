@@ -0,0 +1,186 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+
+import es.udc.fi.tfg.data.Gender;
+
+/**
+ * Per-segment bitsets of the demographic filters of a reader. Patients share few distinct gender and age
+ * combinations and the index does not change while it is evaluated, so each combination is matched against the index
+ * once and every later topic with the same demographics iterates the cached bits instead of the gender and age
+ * points or doc values. Safe to share between search threads.
+ */
+public class DemographicFilterCache {
+
+    /**
+     * Demographics of a patient.
+     *
+     * @param gender
+     *            gender, null if unknown.
+     * @param ageMonths
+     *            age in months.
+     */
+    private record FilterKey(Gender gender, int ageMonths) {
+    }
+
+    private final IndexSearcher searcher;
+    private final Map<FilterKey, FilterQuery> filters = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param searcher
+     *            searcher over the reader whose filters are cached.
+     */
+    public DemographicFilterCache(final IndexSearcher searcher) {
+        this.searcher = searcher;
+    }
+
+    /**
+     * Get the cached filter of a patient, matching it against the index on first use.
+     *
+     * @param gender
+     *            gender of the patient, null if unknown.
+     * @param ageMonths
+     *            age of the patient in months.
+     * @return a query over the cached bitsets, only valid for the reader of this cache.
+     */
+    public Query getFilter(final Gender gender, final int ageMonths) {
+
+        final FilterKey key = new FilterKey(gender, ageMonths);
+        final FilterQuery cached = filters.get(key);
+
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        return filters.computeIfAbsent(key, k -> {
+            misses.increment();
+            return new FilterQuery(k, matchFilter(SearchEval.getFilter(k.gender(), k.ageMonths())));
+        });
+    }
+
+    /**
+     * Match a filter against every segment of the reader.
+     *
+     * @param filter
+     *            the filter.
+     * @return the matching documents of each segment, by leaf ordinal.
+     */
+    private FixedBitSet[] matchFilter(final Query filter) {
+
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        final FixedBitSet[] bits = new FixedBitSet[leaves.size()];
+
+        try {
+            final Weight weight = searcher.createWeight(searcher.rewrite(filter), ScoreMode.COMPLETE_NO_SCORES, 1f);
+
+            for (final LeafReaderContext leaf : leaves) {
+                bits[leaf.ord] = new FixedBitSet(leaf.reader().maxDoc());
+                final Scorer scorer = weight.scorer(leaf);
+                if (scorer != null) {
+                    bits[leaf.ord].or(scorer.iterator());
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Error building demographic filter", e);
+        }
+
+        return bits;
+    }
+
+    public void report(final Logger logger) {
+        logger.info("Demographic filter cache: {} filters, {} hits, {} misses", filters.size(), hits.sum(),
+                misses.sum());
+    }
+
+    /**
+     * Constant score query over the cached bitsets of a filter.
+     */
+    private class FilterQuery extends Query {
+
+        private final FilterKey key;
+        private final FixedBitSet[] bits;
+        private final int[] cardinality;
+
+        FilterQuery(final FilterKey key, final FixedBitSet[] bits) {
+            this.key = key;
+            this.bits = bits;
+            this.cardinality = new int[bits.length];
+            for (int i = 0; i < bits.length; i++) {
+                cardinality[i] = bits[i].cardinality();
+            }
+        }
+
+        @Override
+        public Weight createWeight(final IndexSearcher searcher, final ScoreMode scoreMode, final float boost) {
+
+            return new ConstantScoreWeight(this, boost) {
+
+                @Override
+                public Scorer scorer(final LeafReaderContext context) {
+
+                    final IndexReader topReader = ReaderUtil.getTopLevelContext(context).reader();
+                    if (topReader != DemographicFilterCache.this.searcher.getIndexReader()) {
+                        throw new IllegalStateException("Demographic filter used on a different reader");
+                    }
+
+                    if (cardinality[context.ord] == 0) {
+                        return null;
+                    }
+
+                    final DocIdSetIterator iterator = new BitSetIterator(bits[context.ord], cardinality[context.ord]);
+                    return new ConstantScoreScorer(this, score(), scoreMode, iterator);
+                }
+
+                @Override
+                public boolean isCacheable(final LeafReaderContext ctx) {
+                    // Already cached, the query cache would only hold a second copy.
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        public void visit(final QueryVisitor visitor) {
+            visitor.visitLeaf(this);
+        }
+
+        @Override
+        public String toString(final String field) {
+            return "DemographicFilter(gender=" + key.gender() + ", ageMonths=" + key.ageMonths() + ")";
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return sameClassAs(other) && key.equals(((FilterQuery) other).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return classHash() ^ key.hashCode();
+        }
+    }
+}
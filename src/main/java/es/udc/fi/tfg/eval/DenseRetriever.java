@@ -0,0 +1,82 @@
+package es.udc.fi.tfg.eval;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import es.udc.fi.tfg.index.TrialFields;
+
+/**
+ * Retrieval by precomputed topic embeddings over the HNSW graph of trial embeddings, and its fusion with the lexical
+ * ranking. Topics without an embedding, such as the descriptions sent to the search service, are only searched
+ * lexically. Thread safe.
+ */
+public class DenseRetriever {
+
+    private final Map<String, float[]> topicVectors;
+    private final int rrfK;
+
+    /**
+     * @param topicVectors
+     *            embedding of every topic, by topic number.
+     * @param rrfK
+     *            constant of the reciprocal rank fusion, larger values flatten the weight of the top ranks.
+     */
+    public DenseRetriever(final Map<String, float[]> topicVectors, final int rrfK) {
+        this.topicVectors = topicVectors;
+        this.rrfK = rrfK;
+    }
+
+    /**
+     * Build the kNN query of a topic.
+     *
+     * @param topicId
+     *            number of the topic.
+     * @param k
+     *            neighbours retrieved.
+     * @param filter
+     *            demographic filter applied while the graph is explored, null for none.
+     * @return the query, null if the topic has no embedding.
+     */
+    public Query query(final int topicId, final int k, final Query filter) {
+        final float[] vector = topicVectors.get(String.valueOf(topicId));
+        return vector == null ? null : new KnnFloatVectorQuery(TrialFields.VECTOR, vector, k, filter);
+    }
+
+    /**
+     * Fuse two rankings of the same searcher by reciprocal rank: every trial scores the sum of 1 / (k + rank) over the
+     * rankings it appears in.
+     *
+     * @param lexical
+     *            the lexical hits.
+     * @param dense
+     *            the kNN hits.
+     * @param n
+     *            number of fused hits kept.
+     * @return the fused hits, best first.
+     */
+    public TopDocs fuse(final TopDocs lexical, final TopDocs dense, final int n) {
+
+        final Map<Integer, ScoreDoc> fused = new HashMap<>(2 * (lexical.scoreDocs.length + dense.scoreDocs.length));
+        for (final TopDocs hits : List.of(lexical, dense)) {
+            for (int rank = 0; rank < hits.scoreDocs.length; rank++) {
+                final ScoreDoc hit = hits.scoreDocs[rank];
+                final float score = 1f / (rrfK + rank + 1);
+                fused.merge(hit.doc, new ScoreDoc(hit.doc, score), (a, b) -> {
+                    a.score += b.score;
+                    return a;
+                });
+            }
+        }
+
+        final List<ScoreDoc> ranked = new ArrayList<>(fused.values());
+        ranked.sort((a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+        return new TopDocs(lexical.totalHits, ranked.subList(0, Math.min(n, ranked.size())).toArray(ScoreDoc[]::new));
+    }
+}
@@ -0,0 +1,148 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.sandbox.search.CombinedFieldQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Weighted trial sections searched by a query. A term is either scored on every section separately and the weighted
+ * scores summed, or, with BM25, scored once over the weighted sections as a single combined field (BM25F). Sections
+ * with no weight are not searched.
+ */
+public class FieldWeights {
+
+    private static final Logger logger = LoggerFactory.getLogger(FieldWeights.class);
+
+    private final Map<String, Float> weights;
+    private final String[] fields;
+    private final boolean combined;
+
+    /**
+     * @param weights
+     *            weight of every searched section, sections of weight 0 are dropped.
+     * @param combined
+     *            score the sections as one combined field.
+     */
+    public FieldWeights(final Map<String, Float> weights, final boolean combined) {
+        this.weights = new HashMap<>();
+        weights.forEach((field, weight) -> {
+            if (weight > 0) {
+                this.weights.put(field, weight);
+            }
+        });
+        this.fields = weights.keySet().stream().filter(this.weights::containsKey).toArray(String[]::new);
+        this.combined = combined;
+    }
+
+    /**
+     * Weights for a similarity. Combined fields are only scored with BM25, any other similarity falls back to summing
+     * the per-field scores.
+     *
+     * @param weights
+     *            weight of every searched section.
+     * @param combined
+     *            score the sections as one combined field, if the similarity allows it.
+     * @param similarity
+     *            the similarity of the searcher.
+     * @return the weights.
+     */
+    public static FieldWeights forSimilarity(final Map<String, Float> weights, final boolean combined,
+            final Similarity similarity) {
+
+        if (combined && !(similarity instanceof BM25Similarity)) {
+            logger.warn("Combined fields need BM25, {} scores every field separately", similarity);
+            return new FieldWeights(weights, false);
+        }
+
+        return new FieldWeights(weights, combined);
+    }
+
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    public float getWeight(final String field) {
+        return weights.getOrDefault(field, 0f);
+    }
+
+    public boolean isCombined() {
+        return combined;
+    }
+
+    /**
+     * A parser of free text over the weighted sections, summing the per-field scores of every term.
+     *
+     * @param analyzer
+     *            analyzer of the sections.
+     * @return a new parser, not thread safe.
+     */
+    public QueryParser createParser(final Analyzer analyzer) {
+        return new MultiFieldQueryParser(fields, analyzer, weights);
+    }
+
+    /**
+     * Query of a single analyzed term over the weighted sections.
+     *
+     * @param term
+     *            the term.
+     * @return the term query.
+     */
+    public Query termQuery(final String term) {
+
+        if (combined) {
+            final CombinedFieldQuery.Builder builder = new CombinedFieldQuery.Builder().addTerm(new BytesRef(term));
+            for (final String field : fields) {
+                builder.addField(field, weights.get(field));
+            }
+            return builder.build();
+        }
+
+        if (fields.length == 1) {
+            return boost(new TermQuery(new Term(fields[0], term)), weights.get(fields[0]));
+        }
+
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (final String field : fields) {
+            builder.add(boost(new TermQuery(new Term(field, term)), weights.get(field)), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Number of trials with a term in any of the weighted sections, approximated by its highest per-section count.
+     *
+     * @param reader
+     *            the reader.
+     * @param term
+     *            the term.
+     * @return the document frequency.
+     */
+    public int docFreq(final IndexReader reader, final String term) throws IOException {
+        int df = 0;
+        for (final String field : fields) {
+            df = Math.max(df, reader.docFreq(new Term(field, term)));
+        }
+        return df;
+    }
+
+    private static Query boost(final Query query, final float weight) {
+        return weight == 1f ? query : new BoostQuery(query, weight);
+    }
+}
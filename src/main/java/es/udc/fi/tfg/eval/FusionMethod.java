@@ -0,0 +1,15 @@
+package es.udc.fi.tfg.eval;
+
+/**
+ * How {@link RunFusion} combines the hits of several runs.
+ */
+public enum FusionMethod {
+    /** Sum of 1 / (k + rank) over the runs that retrieved the trial. */
+    RRF,
+    /** Sum of the min-max normalized scores. */
+    COMB_SUM,
+    /** CombSUM times the number of runs that retrieved the trial. */
+    COMB_MNZ,
+    /** Weighted sum of the min-max normalized scores. */
+    WEIGHTED
+}
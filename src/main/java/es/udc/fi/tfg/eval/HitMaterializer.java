@@ -0,0 +1,108 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Reads the <code>nct_id</code> of retrieved trials from doc values instead of stored fields, so only the ordinal and
+ * term of a single field are decoded per hit.
+ */
+public class HitMaterializer {
+
+    private static final String FIELD = "nct_id";
+
+    private HitMaterializer() {
+    }
+
+    /**
+     * Look up the <code>nct_id</code> of the first hits. Lookups are done in docID order, so every segment's doc
+     * values are visited once and only forward.
+     *
+     * @param reader
+     *            reader the hits were retrieved from.
+     * @param hits
+     *            the hits, in rank order.
+     * @param count
+     *            number of hits to materialize, at most the number of hits.
+     * @return the ids of the hits, in rank order.
+     */
+    public static String[] nctIds(final IndexReader reader, final ScoreDoc[] hits, final int count) throws IOException {
+
+        // Ranks packed under their docID, so a primitive sort gives the lookup order without boxing.
+        final long[] byDoc = new long[count];
+        for (int i = 0; i < count; i++) {
+            byDoc[i] = (long) hits[i].doc << 32 | i;
+        }
+        Arrays.sort(byDoc);
+
+        final List<LeafReaderContext> leaves = reader.leaves();
+        final String[] ids = new String[count];
+
+        int leafIndex = -1;
+        LeafReaderContext leaf = null;
+        SortedSetDocValues values = null;
+
+        for (final long packed : byDoc) {
+            final int rank = (int) packed;
+            final int doc = hits[rank].doc;
+
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leafIndex = ReaderUtil.subIndex(doc, leaves);
+                leaf = leaves.get(leafIndex);
+                values = DocValues.getSortedSet(leaf.reader(), FIELD);
+            }
+
+            if (values.advanceExact(doc - leaf.docBase)) {
+                final BytesRef term = values.lookupOrd(values.nextOrd());
+                ids[rank] = term.utf8ToString();
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Order the hits with the same score by decreasing <code>nct_id</code>, the order trec_eval ranks ties in. Lucene
+     * breaks ties by docID, which depends on how the index was built, so without this two builds of the same corpus
+     * may write different runs and compute different metrics than trec_eval.
+     *
+     * @param hits
+     *            the hits, in rank order.
+     * @param ids
+     *            the ids of the first hits, reordered along with them.
+     */
+    public static void breakTies(final ScoreDoc[] hits, final String[] ids) {
+
+        int start = 0;
+        while (start < ids.length) {
+            int end = start + 1;
+            while (end < ids.length && hits[end].score == hits[start].score) {
+                end++;
+            }
+
+            // Ties span a few hits, an insertion sort moves hits and ids together in place without allocating.
+            for (int i = start + 1; i < end; i++) {
+                final ScoreDoc hit = hits[i];
+                final String id = ids[i];
+                int j = i - 1;
+                while (j >= start && ids[j].compareTo(id) < 0) {
+                    hits[j + 1] = hits[j];
+                    ids[j + 1] = ids[j];
+                    j--;
+                }
+                hits[j + 1] = hit;
+                ids[j + 1] = id;
+            }
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package es.udc.fi.tfg.eval;
+
+import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
+import static es.udc.fi.tfg.util.Parameters.TRIALS_PER_TOPIC;
+import static es.udc.fi.tfg.util.Parameters.WARMUP_QUERIES_FILENAME;
+import static es.udc.fi.tfg.util.Parameters.WARMUP_ROUNDS;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * Replays a set of warm-up queries before a searcher serves real ones, so that the page faults on terms dictionaries,
+ * postings, points and doc values of a freshly opened or rebuilt index are not charged to the first topics. The first
+ * query is the cold one; the mean of the last round tells how fast the index is once warm.
+ */
+public class IndexWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexWarmer.class);
+
+    private static final Histogram WARMUP_TIME = Metrics.histogram("search.warmup");
+
+    private IndexWarmer() {
+    }
+
+    /**
+     * Read the warm-up queries.
+     *
+     * @return the patient descriptions, empty if the warm-up file does not exist.
+     */
+    public static List<String> loadQueries() {
+
+        final Path file = Path.of(DOCS_PATH, WARMUP_QUERIES_FILENAME);
+        if (!Files.exists(file)) {
+            logger.info("No warm-up queries at '{}'", file);
+            return List.of();
+        }
+
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.isBlank())
+                    .toList();
+        } catch (final IOException e) {
+            logger.error("Error reading warm-up queries '{}' - {}", file, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Search every warm-up query {@link es.udc.fi.tfg.util.Parameters#WARMUP_ROUNDS} times, as a topic would be.
+     *
+     * @param context
+     *            the searcher to warm.
+     * @param parser
+     *            the query parser.
+     * @param queries
+     *            the patient descriptions.
+     */
+    public static void warm(final SearchContext context, final QueryParser parser, final List<String> queries) {
+
+        if (queries.isEmpty() || WARMUP_ROUNDS <= 0) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        long coldNanos = -1;
+        long lastRoundNanos = 0;
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            lastRoundNanos = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                final long queryStart = System.nanoTime();
+                try {
+                    final Topic topic = new Topic(String.valueOf(-i - 1), queries.get(i));
+                    final Query query = SearchEval.getQuery(topic, parser, context);
+                    final TopDocs hits = SearchEval.rerank(context, topic, query,
+                            SearchEval.search(context.searcher(), query), TRIALS_PER_TOPIC);
+                    HitMaterializer.nctIds(context.searcher().getIndexReader(), hits.scoreDocs,
+                            hits.scoreDocs.length);
+                } catch (final IOException | ParseException e) {
+                    logger.warn("Error running warm-up query {} - {}", i + 1, e.getMessage());
+                }
+                final long nanos = System.nanoTime() - queryStart;
+                WARMUP_TIME.record(nanos);
+                lastRoundNanos += nanos;
+                if (coldNanos < 0) {
+                    coldNanos = nanos;
+                }
+            }
+        }
+
+        logger.info("Warm-up: {} queries x {} rounds in {} ms, cold query {} ms, warm mean {} ms", queries.size(),
+                WARMUP_ROUNDS, (System.nanoTime() - start) / 1_000_000, millis(coldNanos),
+                millis(lastRoundNanos / queries.size()));
+    }
+
+    static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,102 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Reduces a long patient description to its most informative terms. Every distinct term is weighted by its frequency
+ * in the description times its inverse document frequency in the index, and only the top terms are kept, each as a
+ * single clause boosted by its frequency instead of one clause per occurrence. Fewer, merged clauses let block-max
+ * WAND skip most of the postings of the remaining ones. Thread safe.
+ */
+public class QueryReducer {
+
+    private record WeightedTerm(String term, int frequency, double weight) {
+    }
+
+    private final IndexReader reader;
+    private final Analyzer analyzer;
+    private final FieldWeights fields;
+    private final int maxTerms;
+
+    /**
+     * @param reader
+     *            reader whose statistics weight the terms.
+     * @param analyzer
+     *            analyzer of the field.
+     * @param fields
+     *            weighted sections the query searches.
+     * @param maxTerms
+     *            number of terms kept.
+     */
+    public QueryReducer(final IndexReader reader, final Analyzer analyzer, final FieldWeights fields,
+            final int maxTerms) {
+        this.reader = reader;
+        this.analyzer = analyzer;
+        this.fields = fields;
+        this.maxTerms = maxTerms;
+    }
+
+    /**
+     * Build the reduced query of a text.
+     *
+     * @param text
+     *            the text, as written.
+     * @return a disjunction of the most informative terms of the text.
+     */
+    public Query reduce(final String text) throws IOException {
+
+        final Map<String, Integer> frequencies = new HashMap<>();
+
+        try (final TokenStream stream = analyzer.tokenStream(fields.getFields()[0], text)) {
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                frequencies.merge(termAtt.toString(), 1, Integer::sum);
+            }
+            stream.end();
+        }
+
+        final int docCount = Math.max(1, reader.numDocs());
+        final PriorityQueue<WeightedTerm> top = new PriorityQueue<>(
+                (a, b) -> Double.compare(a.weight(), b.weight()));
+
+        for (final Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            final int df = fields.docFreq(reader, entry.getKey());
+            if (df == 0) {
+                continue;
+            }
+
+            final double idf = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+            top.add(new WeightedTerm(entry.getKey(), entry.getValue(), entry.getValue() * idf));
+            if (top.size() > maxTerms) {
+                top.poll();
+            }
+        }
+
+        if (top.isEmpty()) {
+            return new MatchNoDocsQuery("No query term occurs in the index");
+        }
+
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (final WeightedTerm term : top) {
+            final Query termQuery = fields.termQuery(term.term());
+            builder.add(term.frequency() == 1 ? termQuery : new BoostQuery(termQuery, term.frequency()),
+                    BooleanClause.Occur.SHOULD);
+        }
+
+        return builder.build();
+    }
+}
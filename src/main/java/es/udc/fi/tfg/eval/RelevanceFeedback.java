@@ -0,0 +1,229 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryRescorer;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * RM3 pseudo-relevance feedback. The relevance model of a topic is estimated from the term vectors of its top hits,
+ * each term weighted by its frequency in a hit times the normalized score of the hit, and its heaviest terms become
+ * an expansion query. The first-pass query and the expansion are then searched together under the same filter,
+ * interpolating their scores, so trials that only the expansion matches can enter the ranking. If the model took the
+ * whole budget, the first-pass hits are only rescored with the expansion instead, which costs one pass over them.
+ * Thread safe.
+ */
+public class RelevanceFeedback {
+
+    private static final Histogram FEEDBACK_TIME = Metrics.histogram("search.feedback");
+    private static final LongAdder OVER_BUDGET = Metrics.counter("search.feedback_over_budget");
+
+    private static final CharArraySet STOP_WORDS = EnglishAnalyzer.ENGLISH_STOP_WORDS_SET;
+
+    private record WeightedTerm(String term, float weight) {
+    }
+
+    private final IndexSearcher searcher;
+    private final FieldWeights fields;
+    private final int feedbackDocs;
+    private final int feedbackTerms;
+    private final float originalWeight;
+    private final long budgetNanos;
+
+    /**
+     * @param searcher
+     *            the searcher of the first pass.
+     * @param fields
+     *            weighted sections, both read for the model and searched by the expansion.
+     * @param feedbackDocs
+     *            top hits the model is estimated from.
+     * @param feedbackTerms
+     *            terms of the expansion query.
+     * @param originalWeight
+     *            weight of the original score in the interpolation, between 0 and 1.
+     * @param budgetMillis
+     *            time a topic may spend in feedback. Past it, the model is built from the hits read so far, and the
+     *            first-pass hits are rescored instead of searched again.
+     */
+    public RelevanceFeedback(final IndexSearcher searcher, final FieldWeights fields, final int feedbackDocs,
+            final int feedbackTerms, final float originalWeight, final long budgetMillis) {
+        this.searcher = searcher;
+        this.fields = fields;
+        this.feedbackDocs = feedbackDocs;
+        this.feedbackTerms = feedbackTerms;
+        this.originalWeight = originalWeight;
+        this.budgetNanos = budgetMillis * 1_000_000;
+    }
+
+    /**
+     * Rerank the first-pass hits of a topic with its relevance model.
+     *
+     * @param query
+     *            the first-pass query, null if the hits were not retrieved by a text query alone, in which case they
+     *            are rescored instead of searched again.
+     * @param filter
+     *            the demographic filter of the first pass, null for none.
+     * @param hits
+     *            the first-pass hits.
+     * @param n
+     *            number of hits of the second search.
+     * @return the new hits, or the first-pass ones if no model could be estimated.
+     */
+    public TopDocs rerank(final Query query, final Query filter, final TopDocs hits, final int n)
+            throws IOException {
+
+        final long start = System.nanoTime();
+        final long deadline = start + budgetNanos;
+
+        try {
+            final Query expansion = expansionQuery(hits.scoreDocs, deadline);
+            if (expansion == null) {
+                return hits;
+            }
+
+            final float expansionWeight = 1 - originalWeight;
+            if (query == null || System.nanoTime() > deadline) {
+                if (query != null) {
+                    OVER_BUDGET.increment();
+                }
+                return new QueryRescorer(expansion) {
+                    @Override
+                    protected float combine(final float firstPassScore, final boolean secondPassMatches,
+                            final float secondPassScore) {
+                        return originalWeight * firstPassScore + (secondPassMatches ? expansionWeight * secondPassScore
+                                : 0);
+                    }
+                }.rescore(searcher, hits, hits.scoreDocs.length);
+            }
+
+            final BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                    .add(new BoostQuery(query, originalWeight), BooleanClause.Occur.SHOULD)
+                    .add(new BoostQuery(expansion, expansionWeight), BooleanClause.Occur.SHOULD);
+            if (filter != null) {
+                builder.add(filter, BooleanClause.Occur.FILTER);
+            }
+            return SearchEval.search(searcher, builder.build(), n);
+
+        } finally {
+            FEEDBACK_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Estimate the relevance model of the top hits and keep its heaviest terms.
+     *
+     * @param hits
+     *            the first-pass hits, best first.
+     * @param deadline
+     *            time past which no more hits are read.
+     * @return the expansion query, null if the hits have no term vectors.
+     */
+    private Query expansionQuery(final ScoreDoc[] hits, final long deadline) throws IOException {
+
+        final int docs = Math.min(feedbackDocs, hits.length);
+        float scoreSum = 0;
+        for (int i = 0; i < docs; i++) {
+            scoreSum += hits[i].score;
+        }
+        if (docs == 0 || scoreSum <= 0) {
+            return null;
+        }
+
+        final TermVectors termVectors = searcher.getIndexReader().termVectors();
+        final Map<String, Float> model = new HashMap<>();
+        final Map<String, Float> docModel = new HashMap<>();
+
+        for (int i = 0; i < docs; i++) {
+            if (System.nanoTime() > deadline) {
+                OVER_BUDGET.increment();
+                break;
+            }
+
+            final Fields vectors = termVectors.get(hits[i].doc);
+            if (vectors == null) {
+                continue;
+            }
+
+            docModel.clear();
+            float length = 0;
+            for (final String field : fields.getFields()) {
+                final Terms terms = vectors.terms(field);
+                if (terms == null) {
+                    continue;
+                }
+                final float weight = fields.getWeight(field);
+                final TermsEnum termsEnum = terms.iterator();
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    final float tf = weight * termsEnum.totalTermFreq();
+                    length += tf;
+                    final String text = term.utf8ToString();
+                    if (isExpansionTerm(text)) {
+                        docModel.merge(text, tf, Float::sum);
+                    }
+                }
+            }
+
+            // P(w|R) is the sum over the hits of P(w|d), weighted by the share of the hit in the top scores.
+            final float docWeight = hits[i].score / scoreSum / Math.max(1, length);
+            docModel.forEach((term, tf) -> model.merge(term, tf * docWeight, Float::sum));
+        }
+
+        if (model.isEmpty()) {
+            return null;
+        }
+
+        final PriorityQueue<WeightedTerm> top = new PriorityQueue<>(
+                (a, b) -> Float.compare(a.weight(), b.weight()));
+        model.forEach((term, weight) -> {
+            top.add(new WeightedTerm(term, weight));
+            if (top.size() > feedbackTerms) {
+                top.poll();
+            }
+        });
+
+        float total = 0;
+        for (final WeightedTerm term : top) {
+            total += term.weight();
+        }
+
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (final WeightedTerm term : top) {
+            builder.add(new BoostQuery(fields.termQuery(term.term()), term.weight() / total),
+                    BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private static boolean isExpansionTerm(final String term) {
+        if (term.length() < 2 || STOP_WORDS.contains(term)) {
+            return false;
+        }
+        for (int i = 0; i < term.length(); i++) {
+            if (!Character.isDigit(term.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package es.udc.fi.tfg.eval;
+
+/**
+ * How the trials of a topic are retrieved.
+ */
+public enum RetrievalMode {
+    /** Text query over the trial sections. */
+    LEXICAL,
+    /** Nearest neighbours of the topic embedding in the HNSW graph of trial embeddings. */
+    DENSE,
+    /** Both, fused by reciprocal rank. */
+    HYBRID
+}
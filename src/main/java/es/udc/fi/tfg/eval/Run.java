@@ -0,0 +1,100 @@
+package es.udc.fi.tfg.eval;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * A run held in memory: for every topic, the docIDs and scores of its hits in rank order, in two primitive arrays.
+ * Topics are identified by their position in the topic list the run was searched from, and docIDs refer to the reader
+ * that was searched. A topic takes 8 bytes per hit.
+ */
+public class Run {
+
+    private static final int[] NO_DOCS = {};
+    private static final float[] NO_SCORES = {};
+
+    private final String name;
+    private final int[][] docs;
+    private final float[][] scores;
+
+    /**
+     * @param name
+     *            name of the run.
+     * @param topics
+     *            number of topics.
+     */
+    public Run(final String name, final int topics) {
+        this.name = name;
+        this.docs = new int[topics][];
+        this.scores = new float[topics][];
+        for (int i = 0; i < topics; i++) {
+            docs[i] = NO_DOCS;
+            scores[i] = NO_SCORES;
+        }
+    }
+
+    /**
+     * Set the hits of a topic.
+     *
+     * @param topic
+     *            position of the topic.
+     * @param hits
+     *            the hits, in rank order.
+     * @param count
+     *            number of hits kept.
+     */
+    public void set(final int topic, final ScoreDoc[] hits, final int count) {
+        final int[] topicDocs = new int[count];
+        final float[] topicScores = new float[count];
+        for (int i = 0; i < count; i++) {
+            topicDocs[i] = hits[i].doc;
+            topicScores[i] = hits[i].score;
+        }
+        set(topic, topicDocs, topicScores);
+    }
+
+    /**
+     * Set the hits of a topic, taking ownership of the arrays.
+     *
+     * @param topic
+     *            position of the topic.
+     * @param topicDocs
+     *            docIDs of the hits, in rank order.
+     * @param topicScores
+     *            their scores.
+     */
+    public void set(final int topic, final int[] topicDocs, final float[] topicScores) {
+        docs[topic] = topicDocs;
+        scores[topic] = topicScores;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTopicCount() {
+        return docs.length;
+    }
+
+    public int[] getDocs(final int topic) {
+        return docs[topic];
+    }
+
+    public float[] getScores(final int topic) {
+        return scores[topic];
+    }
+
+    /**
+     * The hits of a topic as Lucene hits.
+     *
+     * @param topic
+     *            position of the topic.
+     * @return the hits, in rank order.
+     */
+    public ScoreDoc[] getHits(final int topic) {
+        final ScoreDoc[] hits = new ScoreDoc[docs[topic].length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new ScoreDoc(docs[topic][i], scores[topic][i]);
+        }
+        return hits;
+    }
+}
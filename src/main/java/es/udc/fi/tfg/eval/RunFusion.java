@@ -0,0 +1,196 @@
+package es.udc.fi.tfg.eval;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Fuses runs held in memory into a new one, topics in parallel. The contributions of the hits of a topic in every run
+ * are added up in an open addressing table keyed by docID, and the best fused hits are selected with a bounded heap
+ * of their score bits packed over their docID into a long. Nothing is boxed, and besides the fused run only the
+ * scratch arrays of the topics being fused are alive at a time. Thread safe.
+ */
+public class RunFusion {
+
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    private final FusionMethod method;
+    private final int rrfK;
+    private final int depth;
+
+    /**
+     * @param method
+     *            how hits are combined.
+     * @param rrfK
+     *            constant of reciprocal rank fusion, larger values flatten the weight of the top ranks.
+     * @param depth
+     *            hits kept per topic in the fused run.
+     */
+    public RunFusion(final FusionMethod method, final int rrfK, final int depth) {
+        this.method = method;
+        this.rrfK = rrfK;
+        this.depth = depth;
+    }
+
+    /**
+     * Fuse runs over the same topics and reader, with the same weight.
+     *
+     * @param name
+     *            name of the fused run.
+     * @param runs
+     *            the runs.
+     * @return the fused run.
+     */
+    public Run fuse(final String name, final List<Run> runs) {
+        final float[] weights = new float[runs.size()];
+        Arrays.fill(weights, 1f / runs.size());
+        return fuse(name, runs, weights);
+    }
+
+    /**
+     * Fuse runs over the same topics and reader.
+     *
+     * @param name
+     *            name of the fused run.
+     * @param runs
+     *            the runs.
+     * @param weights
+     *            weight of every run, only used by {@link FusionMethod#WEIGHTED}.
+     * @return the fused run.
+     * @throws IllegalArgumentException
+     *             if the runs have different topics, or a weight is negative.
+     */
+    public Run fuse(final String name, final List<Run> runs, final float[] weights) {
+
+        final int topics = runs.get(0).getTopicCount();
+        for (final Run run : runs) {
+            if (run.getTopicCount() != topics) {
+                throw new IllegalArgumentException(String.format("Run '%s' has %d topics, '%s' has %d",
+                        run.getName(), run.getTopicCount(), runs.get(0).getName(), topics));
+            }
+        }
+        for (final float weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Fusion weights must not be negative");
+            }
+        }
+
+        final Run fused = new Run(name, topics);
+        IntStream.range(0, topics).parallel().forEach(topic -> fuseTopic(topic, runs, weights, fused));
+        return fused;
+    }
+
+    private void fuseTopic(final int topic, final List<Run> runs, final float[] weights, final Run fused) {
+
+        int total = 0;
+        for (final Run run : runs) {
+            total += run.getDocs(topic).length;
+        }
+
+        // Open addressing table from docID to the slot of its fused score, at most half full.
+        final int capacity = Integer.highestOneBit(Math.max(2, total) * 2 - 1) << 1;
+        final int mask = capacity - 1;
+        final int[] table = new int[capacity];
+        final int[] slotDocs = new int[total];
+        final float[] slotScores = new float[total];
+        final int[] slotMatches = new int[total];
+        int trials = 0;
+
+        for (int r = 0; r < runs.size(); r++) {
+            final int[] docs = runs.get(r).getDocs(topic);
+            final float[] scores = runs.get(r).getScores(topic);
+
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (final float score : scores) {
+                min = Math.min(min, score);
+                max = Math.max(max, score);
+            }
+            final float range = max - min;
+
+            for (int rank = 0; rank < docs.length; rank++) {
+                final float normalized = range > 0 ? (scores[rank] - min) / range : 1f;
+                final float contribution = switch (method) {
+                case RRF -> 1f / (rrfK + rank + 1);
+                case COMB_SUM, COMB_MNZ -> normalized;
+                case WEIGHTED -> weights[r] * normalized;
+                };
+
+                // Table entries hold the slot plus one, 0 marks a free entry.
+                final int doc = docs[rank];
+                int entry = (doc * 0x9E3779B9) >>> 1 & mask;
+                while (table[entry] != 0 && slotDocs[table[entry] - 1] != doc) {
+                    entry = entry + 1 & mask;
+                }
+                if (table[entry] == 0) {
+                    slotDocs[trials] = doc;
+                    table[entry] = ++trials;
+                }
+                final int slot = table[entry] - 1;
+                slotScores[slot] += contribution;
+                slotMatches[slot]++;
+            }
+        }
+
+        // The best trials, kept in a min-heap of their fused score over their docID. Scores are never negative, so
+        // their bits sort as they do, and the docID is stored inverted so that ties come out in docID order.
+        final int kept = Math.min(depth, trials);
+        final long[] heap = new long[kept];
+        int size = 0;
+        for (int slot = 0; slot < trials; slot++) {
+            final float score = method == FusionMethod.COMB_MNZ ? slotScores[slot] * slotMatches[slot]
+                    : slotScores[slot];
+            final long packed = (long) Float.floatToIntBits(score) << 32 | (LOW_BITS - slotDocs[slot]);
+            if (size < kept) {
+                heap[size++] = packed;
+                siftUp(heap, size - 1);
+            } else if (kept > 0 && packed > heap[0]) {
+                heap[0] = packed;
+                siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap);
+
+        final int[] docs = new int[kept];
+        final float[] scores = new float[kept];
+        for (int i = 0; i < kept; i++) {
+            final long packed = heap[kept - 1 - i];
+            docs[i] = (int) (LOW_BITS - (packed & LOW_BITS));
+            scores[i] = Float.intBitsToFloat((int) (packed >>> 32));
+        }
+        fused.set(topic, docs, scores);
+    }
+
+    private static void siftUp(final long[] heap, int i) {
+        final long value = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private static void siftDown(final long[] heap, final int size) {
+        final long value = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+}
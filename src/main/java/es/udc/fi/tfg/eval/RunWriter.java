@@ -0,0 +1,112 @@
+package es.udc.fi.tfg.eval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a run in TREC format, <code>topic Q0 docno rank score run</code>, through a file channel. Lines are encoded
+ * straight into a reusable buffer instead of being built as strings, and the buffer is written out whenever it fills
+ * up. Document ids are written uppercased. Not thread safe.
+ */
+public class RunWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte[] Q0 = " Q0 ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] runName;
+
+    /**
+     * Create or truncate a run file.
+     *
+     * @param file
+     *            the run file.
+     * @param runName
+     *            name of the run, written on every line.
+     */
+    public RunWriter(final Path file, final String runName) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.runName = runName.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write a line of the run.
+     *
+     * @param topicId
+     *            number of the topic.
+     * @param docId
+     *            id of the retrieved trial.
+     * @param rank
+     *            rank of the trial, from 1.
+     * @param score
+     *            its score.
+     */
+    public void write(final int topicId, final String docId, final int rank, final float score) throws IOException {
+
+        final String scoreText = Float.toString(score);
+        // Three ints of at most 11 characters, plus the separators.
+        final int length = 40 + docId.length() + scoreText.length() + runName.length + LINE_SEPARATOR.length;
+        if (buffer.remaining() < length) {
+            flush();
+        }
+
+        putInt(topicId);
+        buffer.put(Q0);
+        for (int i = 0; i < docId.length(); i++) {
+            buffer.put((byte) Character.toUpperCase(docId.charAt(i)));
+        }
+        buffer.put((byte) ' ');
+        putInt(rank);
+        buffer.put((byte) ' ');
+        for (int i = 0; i < scoreText.length(); i++) {
+            buffer.put((byte) scoreText.charAt(i));
+        }
+        buffer.put((byte) ' ');
+        buffer.put(runName);
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    private void putInt(final int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            putDigits(-(long) value);
+        } else {
+            putDigits(value);
+        }
+    }
+
+    private void putDigits(final long value) {
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package es.udc.fi.tfg.eval;
+
+import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
+import static es.udc.fi.tfg.util.Parameters.FEEDBACK_BUDGET_MS;
+import static es.udc.fi.tfg.util.Parameters.FEEDBACK_DOCS;
+import static es.udc.fi.tfg.util.Parameters.FEEDBACK_ORIGINAL_WEIGHT;
+import static es.udc.fi.tfg.util.Parameters.FEEDBACK_TERMS;
+import static es.udc.fi.tfg.util.Parameters.HYBRID_RRF_K;
+import static es.udc.fi.tfg.util.Parameters.QUERY_FIELD_WEIGHTS;
+import static es.udc.fi.tfg.util.Parameters.QUERY_MAX_TERMS;
+import static es.udc.fi.tfg.util.Parameters.RERANK_BUDGET_MS;
+import static es.udc.fi.tfg.util.Parameters.RERANK_DEPTH;
+import static es.udc.fi.tfg.util.Parameters.RERANK_EXCLUSION_PENALTY;
+import static es.udc.fi.tfg.util.Parameters.RERANK_INCLUSION_WEIGHT;
+import static es.udc.fi.tfg.util.Parameters.RETRIEVAL_MODE;
+import static es.udc.fi.tfg.util.Parameters.TOPIC_VECTORS_FILENAME;
+import static es.udc.fi.tfg.util.Parameters.USE_COMBINED_FIELDS;
+import static es.udc.fi.tfg.util.Parameters.USE_CRITERIA_RERANK;
+import static es.udc.fi.tfg.util.Parameters.USE_FEEDBACK;
+import static es.udc.fi.tfg.util.Parameters.USE_FILTER_CACHE;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.index.TrialAnalyzer;
+import es.udc.fi.tfg.index.TrialFields;
+import es.udc.fi.tfg.util.VectorFile;
+
+/**
+ * Search components bound to an open reader, shared by every search thread.
+ *
+ * @param searcher
+ *            the searcher.
+ * @param filterCache
+ *            cache of demographic filters, null if disabled.
+ * @param reducer
+ *            builder of term queries from the analyzed description, null if descriptions are parsed whole.
+ * @param feedback
+ *            pseudo-relevance feedback stage, null if disabled.
+ * @param reranker
+ *            eligibility re-ranking stage, null if disabled.
+ * @param dense
+ *            kNN retrieval by topic embeddings, null in lexical mode.
+ */
+public record SearchContext(IndexSearcher searcher, DemographicFilterCache filterCache, QueryReducer reducer,
+        RelevanceFeedback feedback, CriteriaReranker reranker, DenseRetriever dense) {
+
+    /**
+     * Create the components configured in {@link es.udc.fi.tfg.util.Parameters} for a searcher.
+     *
+     * @param searcher
+     *            the searcher.
+     * @return the context.
+     */
+    public static SearchContext create(final IndexSearcher searcher) throws IOException {
+
+        final FieldWeights fields = FieldWeights.forSimilarity(QUERY_FIELD_WEIGHTS, USE_COMBINED_FIELDS,
+                searcher.getSimilarity());
+
+        final QueryReducer reducer = createReducer(searcher, fields);
+
+        final FieldInfos fieldInfos = FieldInfos.getMergedFieldInfos(searcher.getIndexReader());
+        if (USE_FEEDBACK && !fieldInfos.hasVectors()) {
+            LoggerFactory.getLogger(SearchContext.class)
+                    .warn("Feedback is enabled but the index has no term vectors, rebuild it with INDEX_TERM_VECTORS");
+        }
+        if (USE_CRITERIA_RERANK && fieldInfos.fieldInfo(TrialFields.INCLUSION) == null) {
+            LoggerFactory.getLogger(SearchContext.class).warn("Criteria re-ranking is enabled but the index has no "
+                    + "criteria sections, rebuild it with INDEX_CRITERIA_SECTIONS");
+        }
+
+        final RelevanceFeedback feedback = USE_FEEDBACK
+                ? new RelevanceFeedback(searcher, fields, FEEDBACK_DOCS, FEEDBACK_TERMS, FEEDBACK_ORIGINAL_WEIGHT,
+                        FEEDBACK_BUDGET_MS)
+                : null;
+
+        final CriteriaReranker reranker = USE_CRITERIA_RERANK
+                ? new CriteriaReranker(searcher, TrialAnalyzer.forSearch(), RERANK_DEPTH, RERANK_INCLUSION_WEIGHT,
+                        RERANK_EXCLUSION_PENALTY, RERANK_BUDGET_MS)
+                : null;
+
+        final DenseRetriever dense = RETRIEVAL_MODE != RetrievalMode.LEXICAL
+                ? new DenseRetriever(VectorFile.load(Path.of(DOCS_PATH, TOPIC_VECTORS_FILENAME)), HYBRID_RRF_K)
+                : null;
+
+        return new SearchContext(searcher, USE_FILTER_CACHE ? new DemographicFilterCache(searcher) : null, reducer,
+                feedback, reranker, dense);
+    }
+
+    /**
+     * Create only the components that build the queries of a searcher, reusing the filters of another context over
+     * the same reader. Queries depend on the similarity, which decides whether the sections can be combined.
+     *
+     * @param searcher
+     *            the searcher.
+     * @param filterCache
+     *            cache of demographic filters of the same reader, null if disabled.
+     * @return the context, without feedback, re-ranking or dense retrieval.
+     */
+    public static SearchContext forQueries(final IndexSearcher searcher, final DemographicFilterCache filterCache) {
+        final FieldWeights fields = FieldWeights.forSimilarity(QUERY_FIELD_WEIGHTS, USE_COMBINED_FIELDS,
+                searcher.getSimilarity());
+        return new SearchContext(searcher, filterCache, createReducer(searcher, fields), null, null, null);
+    }
+
+    private static QueryReducer createReducer(final IndexSearcher searcher, final FieldWeights fields) {
+        // Combined fields have no parser syntax, their queries are always built term by term.
+        return QUERY_MAX_TERMS > 0 || fields.isCombined()
+                ? new QueryReducer(searcher.getIndexReader(), TrialAnalyzer.forSearch(), fields,
+                        QUERY_MAX_TERMS > 0 ? QUERY_MAX_TERMS : Integer.MAX_VALUE)
+                : null;
+    }
+
+    public void report(final Logger logger) {
+        if (filterCache != null) {
+            filterCache.report(logger);
+        }
+    }
+}
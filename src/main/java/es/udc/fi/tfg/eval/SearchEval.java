@@ -1,113 +1,336 @@
 package es.udc.fi.tfg.eval;
 
 import static es.udc.fi.tfg.util.Parameters.EVAL_FILENAME;
-import static es.udc.fi.tfg.util.Parameters.INDEX_PATH;
+import static es.udc.fi.tfg.util.Parameters.METRICS_CUT;
+import static es.udc.fi.tfg.util.Parameters.METRICS_PATH;
+import static es.udc.fi.tfg.util.Parameters.N_SEARCH_THREADS;
+import static es.udc.fi.tfg.util.Parameters.N_THREADS;
+import static es.udc.fi.tfg.util.Parameters.QUERY_FIELD_WEIGHTS;
+import static es.udc.fi.tfg.util.Parameters.RETRIEVAL_MODE;
 import static es.udc.fi.tfg.util.Parameters.RUN_NAME;
 import static es.udc.fi.tfg.util.Parameters.SIMILARITY;
+import static es.udc.fi.tfg.util.Parameters.TOTAL_HITS_THRESHOLD;
 import static es.udc.fi.tfg.util.Parameters.TRIALS_PER_TOPIC;
 import static es.udc.fi.tfg.util.Parameters.USE_QUERY_FILTER;
+import static es.udc.fi.tfg.util.Parameters.USE_SEGMENT_SLICING;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.DoubleRange;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.StoredFields;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.udc.fi.tfg.data.Gender;
 import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.eval.metrics.MeanMetrics;
+import es.udc.fi.tfg.eval.metrics.Qrels;
+import es.udc.fi.tfg.eval.metrics.TopicMetrics;
+import es.udc.fi.tfg.eval.metrics.TopicQrels;
+import es.udc.fi.tfg.index.IndexShards;
+import es.udc.fi.tfg.index.TrialAnalyzer;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
 import es.udc.fi.tfg.util.Utility;
 
 public class SearchEval {
 
     private static final Logger logger = LoggerFactory.getLogger(SearchEval.class);
 
+    static final Histogram QUERY_TIME = Metrics.histogram("search.query");
+    static final Histogram SEARCH_TIME = Metrics.histogram("search.search");
+    static final Histogram MATERIALIZE_TIME = Metrics.histogram("search.materialize");
+
+    // Query parsers are not thread safe, every search thread builds its own.
+    private static final ThreadLocal<QueryParser> PARSER = ThreadLocal.withInitial(SearchEval::createParser);
+
+    private static final Pattern OPERATORS = Pattern.compile("\\b(AND|OR|NOT)\\b");
+
     public static void main(final String[] args) {
 
-        // Topics and relevance parsing.
-        final Collection<Topic> topics = SearchEvalHelper.parseTopics();
+        final long start = System.nanoTime();
+        Metrics.registerMBean();
+
+        // Topics and relevance parsing, searched and written in topic order.
+        final List<Topic> topics = new ArrayList<>(SearchEvalHelper.parseTopics());
+        topics.sort(Comparator.comparingInt(Topic::getId));
+        final Qrels qrels = SearchEvalHelper.parseQrels();
+        final MeanMetrics meanMetrics = new MeanMetrics();
 
-        try (final IndexReader reader = DirectoryReader.open(FSDirectory.open(Path.of(INDEX_PATH)));
-                final PrintWriter printWriter = new PrintWriter(EVAL_FILENAME)) {
+        final ExecutorService topicExecutor = Executors.newFixedThreadPool(N_SEARCH_THREADS);
+        // Segment slices run on their own pool, topic workers would otherwise wait on tasks queued behind them.
+        final ExecutorService sliceExecutor = USE_SEGMENT_SLICING ? Executors.newFixedThreadPool(N_THREADS) : null;
 
-            final IndexSearcher searcher = new IndexSearcher(reader);
+        try (final IndexReader reader = IndexShards.openReader();
+                final RunWriter runWriter = new RunWriter(Path.of(EVAL_FILENAME), RUN_NAME)) {
+
+            final IndexSearcher searcher = new IndexSearcher(reader, sliceExecutor);
             searcher.setSimilarity(SIMILARITY);
-            final QueryParser parser = new QueryParser("contents", new StandardAnalyzer());
+            final SearchContext context = SearchContext.create(searcher);
+            logger.info("Index opened in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+            IndexWarmer.warm(context, PARSER.get(), IndexWarmer.loadQueries());
 
+            final List<Future<TopicResult>> results = new ArrayList<>(topics.size());
             for (final Topic topic : topics)
-                processTopic(topic, parser, searcher, printWriter);
+                results.add(topicExecutor.submit(() -> processTopic(topic, PARSER.get(), context)));
+
+            long searchNanos = 0;
+            for (int i = 0; i < topics.size(); i++) {
+                try {
+                    final TopicResult result = results.get(i).get();
+                    if (i == 0) {
+                        logger.info("Time to first query {} ms, first topic searched in {} ms",
+                                (System.nanoTime() - start) / 1_000_000, IndexWarmer.millis(result.searchNanos()));
+                    }
+                    searchNanos += result.searchNanos();
+                    writeRun(runWriter, topics.get(i), result.hits(), result.nctIds());
+                    evaluateTopic(topics.get(i), result.nctIds(), qrels, meanMetrics);
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof ParseException) {
+                        logger.error("Error parsing query of topic {} - {}", topics.get(i).getId(), cause.getMessage());
+                    } else {
+                        logger.error("Error processing topic {} - {}", topics.get(i).getId(), cause.getMessage());
+                    }
+                }
+            }
+
+            if (qrels != null) {
+                logger.info("Run {}: P@{} = {}, MRR = {}, nDCG@{} = {}, R-Prec = {}, Recall@{} = {}", RUN_NAME,
+                        METRICS_CUT, meanMetrics.getMP(), meanMetrics.getMRR(), METRICS_CUT, meanMetrics.getMnDCG(),
+                        meanMetrics.getMRP(), TRIALS_PER_TOPIC, meanMetrics.getMRecall());
+            }
+
+            logger.info("Run {}: {} retrieval, mean search latency {} ms", RUN_NAME, RETRIEVAL_MODE,
+                    String.format("%.3f", searchNanos / 1e6 / Math.max(1, topics.size())));
+            context.report(logger);
+            Metrics.export(Path.of(METRICS_PATH, "search.json"));
 
         } catch (final IOException e) {
             logger.error("Error handling the index - {}", e.getMessage());
-        } catch (final ParseException e) {
-            logger.error("Error parsing query - {}", e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Evaluation interrupted");
+        } finally {
+            topicExecutor.shutdownNow();
+            if (sliceExecutor != null) {
+                sliceExecutor.shutdownNow();
+            }
         }
 
     }
 
+    /**
+     * Run of a single topic.
+     *
+     * @param hits
+     *            the retrieved trials in rank order.
+     * @param nctIds
+     *            ids of the retrieved trials in rank order.
+     * @param searchNanos
+     *            time spent in the search itself.
+     */
+    record TopicResult(ScoreDoc[] hits, String[] nctIds, long searchNanos) {
+    }
+
+    /**
+     * Evaluate the ranking of a topic against its judgments and add it to the means.
+     *
+     * @param topic
+     *            the topic.
+     * @param nctIds
+     *            ids of the retrieved trials in rank order.
+     * @param qrels
+     *            judgments of every topic, null if the run is not evaluated.
+     * @param meanMetrics
+     *            means of the run.
+     */
+    private static void evaluateTopic(final Topic topic, final String[] nctIds, final Qrels qrels,
+            final MeanMetrics meanMetrics) {
+
+        final TopicQrels topicQrels = qrels == null ? null : qrels.get(topic.getId());
+        if (topicQrels == null) {
+            return;
+        }
+
+        final TopicMetrics metrics = new TopicMetrics(nctIds, topicQrels);
+        final double p = metrics.getP(METRICS_CUT);
+        final double rr = metrics.getRR();
+        final double ndcg = metrics.getNDCG(METRICS_CUT);
+        final double rp = metrics.getRP();
+        final double recall = metrics.getRecall(TRIALS_PER_TOPIC);
+        meanMetrics.updateMetrics(topic.getId(), p, rr, ndcg, rp, recall);
+
+        logger.info("Topic {}: P@{} = {}, RR = {}, nDCG@{} = {}, R-Prec = {}, Recall@{} = {}", topic.getId(),
+                METRICS_CUT, p, rr, METRICS_CUT, ndcg, rp, TRIALS_PER_TOPIC, recall);
+    }
+
     /**
      * Process a single topic.
      *
      * @param topic
      *            the topic to process.
      * @param parser
-     *            the query parser.
-     * @param searcher
-     *            the index searcher.
+     *            the query parser, owned by the calling thread.
+     * @param context
+     *            the searcher and its shared components.
+     * @return the run of this topic.
      */
-    private static void processTopic(final Topic topic, final QueryParser parser, final IndexSearcher searcher,
-            final PrintWriter printWriter)
+    static TopicResult processTopic(final Topic topic, final QueryParser parser, final SearchContext context)
             throws IOException, ParseException {
 
         logger.info("Processing topic {}", topic.getId());
 
-        final BooleanQuery query = getQuery(topic, parser);
+        final IndexSearcher searcher = context.searcher();
+        final long start = System.nanoTime();
+        final BooleanQuery query = getQuery(topic, parser, context);
+        final long parsed = QUERY_TIME.recordSince(start);
 
-        final TopDocs hits = searcher.search(query, TRIALS_PER_TOPIC);
-        final StoredFields storedFields = searcher.storedFields();
+        final TopDocs hits = rerank(context, topic, query, retrieve(context, topic, query), TRIALS_PER_TOPIC);
+        final long searched = SEARCH_TIME.recordSince(parsed);
+        final long searchNanos = searched - parsed;
 
         // @cut
-        processDocuments(topic, hits, storedFields, printWriter);
+        final int cut = Math.min(hits.scoreDocs.length, TRIALS_PER_TOPIC);
+        final String[] nctIds = HitMaterializer.nctIds(searcher.getIndexReader(), hits.scoreDocs, cut);
+        HitMaterializer.breakTies(hits.scoreDocs, nctIds);
+        MATERIALIZE_TIME.recordSince(searched);
+
+        return new TopicResult(hits.scoreDocs, nctIds, searchNanos);
+    }
+
+    /**
+     * Create a parser of topic descriptions over the sections weighted in
+     * {@link es.udc.fi.tfg.util.Parameters#QUERY_FIELD_WEIGHTS}.
+     *
+     * @return a new parser, not thread safe.
+     */
+    public static QueryParser createParser() {
+        return new FieldWeights(QUERY_FIELD_WEIGHTS, false).createParser(TrialAnalyzer.forSearch());
+    }
+
+    /**
+     * Retrieve the top trials of a query. Only the first {@link es.udc.fi.tfg.util.Parameters#TOTAL_HITS_THRESHOLD}
+     * hits, or as many as are retrieved if more, are counted exactly; after that Lucene skips blocks that cannot enter
+     * the top.
+     *
+     * @param searcher
+     *            the index searcher.
+     * @param query
+     *            the query.
+     * @return the top hits.
+     */
+    static TopDocs search(final IndexSearcher searcher, final Query query) throws IOException {
+        return search(searcher, query, TRIALS_PER_TOPIC);
+    }
+
+    static TopDocs search(final IndexSearcher searcher, final Query query, final int n) throws IOException {
+        return searcher.search(query, TopScoreDocCollector.createSharedManager(n, null, TOTAL_HITS_THRESHOLD));
+    }
+
+    /**
+     * Retrieve the top trials of a topic in the configured {@link es.udc.fi.tfg.util.Parameters#RETRIEVAL_MODE}. The
+     * kNN search explores the graph under the same demographic filter as the text query.
+     *
+     * @param context
+     *            the search components.
+     * @param topic
+     *            the topic.
+     * @param query
+     *            the text query of the topic.
+     * @return the top hits, lexical ones if the topic has no embedding.
+     */
+    static TopDocs retrieve(final SearchContext context, final Topic topic, final Query query) throws IOException {
+
+        final IndexSearcher searcher = context.searcher();
+        final DenseRetriever dense = context.dense();
+        final Query knnQuery = dense == null ? null
+                : dense.query(topic.getId(), TRIALS_PER_TOPIC, getFilter(topic, context));
+        if (knnQuery == null) {
+            return search(searcher, query);
+        }
+
+        final TopDocs denseHits = searcher.search(knnQuery, TRIALS_PER_TOPIC);
+        return RETRIEVAL_MODE == RetrievalMode.DENSE ? denseHits
+                : dense.fuse(search(searcher, query), denseHits, TRIALS_PER_TOPIC);
+    }
+
+    /**
+     * Apply the re-ranking stages of the context to the first-pass hits: relevance feedback, then eligibility.
+     *
+     * @param context
+     *            the search components.
+     * @param topic
+     *            the topic searched.
+     * @param query
+     *            the text query of the topic.
+     * @param hits
+     *            the first-pass hits.
+     * @param n
+     *            number of hits retrieved.
+     * @return the final hits.
+     */
+    static TopDocs rerank(final SearchContext context, final Topic topic, final Query query, final TopDocs hits,
+            final int n) throws IOException {
+        TopDocs reranked = hits;
+        if (context.feedback() != null) {
+            // Dense and fused hits are not all matched by the text query, so they are rescored in place.
+            reranked = context.feedback().rerank(context.dense() == null ? query : null, getFilter(topic, context),
+                    reranked, n);
+        }
+        if (context.reranker() != null) {
+            reranked = context.reranker().rerank(topic.getDescription(), reranked);
+        }
+        return reranked;
     }
 
     /**
-     * Process the documents retrieved by the query.
+     * Write the documents retrieved for a topic to its run.
      *
+     * @param writer
+     *            writer of the run.
      * @param topic
      *            the topic being processed.
      * @param hits
      *            the documents retrieved.
-     * @param storedFields
-     *            the stored fields.
+     * @param nctIds
+     *            the ids of the documents to write, in rank order.
      */
-    private static void processDocuments(final Topic topic, final TopDocs hits,
-            final StoredFields storedFields, final PrintWriter printWriter)
+    static void writeRun(final RunWriter writer, final Topic topic, final ScoreDoc[] hits, final String[] nctIds)
             throws IOException {
 
-        for (int i = 0; i < 1000; i++) {
+        for (int i = 0; i < nctIds.length; i++) {
 
-            final ScoreDoc hit = hits.scoreDocs[i];
-            final String docId = storedFields.document(hit.doc).get("nct_id");
-            printWriter.println(
-                    topic.getId() + " Q0 " + docId.toUpperCase() + " " + (i + 1) + " " + hit.score + " " + RUN_NAME);
+            final ScoreDoc hit = hits[i];
+            final String docId = nctIds[i];
+            writer.write(topic.getId(), docId, i + 1, hit.score);
 
-            logger.info("Topic {} Document {} with score {}", topic.getId(), docId, hit.score);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Topic {} Document {} with score {}", topic.getId(), docId, hit.score);
+            }
         }
     }
 
@@ -120,33 +343,121 @@ public class SearchEval {
      *            the query parser.
      * @return the query.
      */
-    private static BooleanQuery getQuery(final Topic topic, final QueryParser parser) throws ParseException {
+    static BooleanQuery getQuery(final Topic topic, final QueryParser parser) throws ParseException {
+        return getQuery(topic, parser, null);
+    }
 
-        final Query descriptionQuery = parser.parse(QueryParser.escape(topic.getDescription()));
+    /**
+     * Build the query for the given topic from the required filters.
+     *
+     * @param topic
+     *            the topic.
+     * @param parser
+     *            the query parser.
+     * @param context
+     *            components of the searched reader, or null to parse the whole description and evaluate the filters
+     *            on every search.
+     * @return the query.
+     */
+    static BooleanQuery getQuery(final Topic topic, final QueryParser parser, final SearchContext context)
+            throws ParseException {
 
-        // Gender filters.
-        final String genderFilterValue = SearchEvalHelper.getGenderFilterValue(topic.getGender());
-        final Query genderFilter = new TermQuery(new Term("gender", genderFilterValue));
-        final Query allGenderFilter = new TermQuery(new Term("gender", "all"));
-        final BooleanQuery genderBooleanQuery = new BooleanQuery.Builder()
-                .add(genderFilter, BooleanClause.Occur.SHOULD)
-                .add(allGenderFilter, BooleanClause.Occur.SHOULD)
-                .build();
+        final Query descriptionQuery = getDescriptionQuery(topic, parser, context);
+        final Query filter = getFilter(topic, context);
 
-        // Age filter.
-        final double[] ageNorm = new double[] { Utility.normalizeAge(topic.getAge()) };
-        final Query ageFilter = DoubleRange.newCrossesQuery("age_range", ageNorm, ageNorm);
+        if (filter == null) {
+            return new BooleanQuery.Builder()
+                    .add(descriptionQuery, BooleanClause.Occur.MUST)
+                    .build();
+        }
 
         // Query builder.
-        return USE_QUERY_FILTER
-                ? new BooleanQuery.Builder()
-                        .add(descriptionQuery, BooleanClause.Occur.MUST)
-                        .add(genderBooleanQuery, BooleanClause.Occur.FILTER)
-                        .add(ageFilter, BooleanClause.Occur.FILTER)
-                        .build()
-                : new BooleanQuery.Builder()
-                        .add(descriptionQuery, BooleanClause.Occur.MUST)
-                        .build();
+        return new BooleanQuery.Builder()
+                .add(descriptionQuery, BooleanClause.Occur.MUST)
+                .add(filter, BooleanClause.Occur.FILTER)
+                .build();
+    }
 
+    /**
+     * Build the demographic filter of a topic.
+     *
+     * @param topic
+     *            the topic.
+     * @param context
+     *            components of the searched reader, or null to build the filter from scratch.
+     * @return the filter, null if topics are not filtered.
+     */
+    static Query getFilter(final Topic topic, final SearchContext context) {
+
+        if (!USE_QUERY_FILTER) {
+            return null;
+        }
+
+        final Gender gender = SearchEvalHelper.getGenderFilter(topic.getGender());
+        final int ageMonths = Utility.ageInMonths(topic.getAge());
+        final DemographicFilterCache filterCache = context == null ? null : context.filterCache();
+        return filterCache != null ? filterCache.getFilter(gender, ageMonths) : getFilter(gender, ageMonths);
+    }
+
+    /**
+     * Build the text query of a topic.
+     *
+     * @param topic
+     *            the topic.
+     * @param parser
+     *            the query parser.
+     * @param context
+     *            components of the searched reader, or null.
+     * @return the whole description parsed, or its top terms if the context reduces queries.
+     */
+    private static Query getDescriptionQuery(final Topic topic, final QueryParser parser, final SearchContext context)
+            throws ParseException {
+
+        if (context != null && context.reducer() != null) {
+            try {
+                return context.reducer().reduce(topic.getDescription());
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Descriptions keep their case, the analyzer lowercases them, but the parser would read AND, OR and NOT written
+        // in capitals as operators.
+        return parser.parse(OPERATORS.matcher(QueryParser.escape(topic.getDescription())).replaceAll(
+                match -> match.group().toLowerCase()));
+    }
+
+    /**
+     * Build the demographic filter of a patient. Each condition is an {@link IndexOrDocValuesQuery}, so Lucene walks
+     * the points when the filter leads the search and checks doc values of the candidates when the text query is the
+     * more selective clause.
+     *
+     * @param gender
+     *            gender of the patient, null if unknown.
+     * @param ageMonths
+     *            age of the patient in months, {@link Utility#UNKNOWN_AGE} if unknown.
+     * @return a query matching the trials the patient is eligible for.
+     */
+    static Query getFilter(final Gender gender, final int ageMonths) {
+
+        // Gender filter, trials open to all genders always match.
+        final int[] genders = gender == null ? new int[] { Gender.ALL.getCode() }
+                : new int[] { gender.getCode(), Gender.ALL.getCode() };
+        final Query genderFilter = new IndexOrDocValuesQuery(IntPoint.newSetQuery("gender_code", genders),
+                NumericDocValuesField.newSlowSetQuery("gender_code", Arrays.stream(genders).asLongStream().toArray()));
+
+        // Age filters, trials without a bound are indexed with the widest value.
+        final Query minAgeFilter = new IndexOrDocValuesQuery(
+                IntPoint.newRangeQuery("min_age_months", Integer.MIN_VALUE, ageMonths),
+                NumericDocValuesField.newSlowRangeQuery("min_age_months", Integer.MIN_VALUE, ageMonths));
+        final Query maxAgeFilter = new IndexOrDocValuesQuery(
+                IntPoint.newRangeQuery("max_age_months", ageMonths, Integer.MAX_VALUE),
+                NumericDocValuesField.newSlowRangeQuery("max_age_months", ageMonths, Integer.MAX_VALUE));
+
+        return new BooleanQuery.Builder()
+                .add(genderFilter, BooleanClause.Occur.FILTER)
+                .add(minAgeFilter, BooleanClause.Occur.FILTER)
+                .add(maxAgeFilter, BooleanClause.Occur.FILTER)
+                .build();
     }
 }
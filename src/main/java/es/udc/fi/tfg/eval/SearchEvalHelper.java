@@ -4,6 +4,8 @@ import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -15,7 +17,9 @@ import javax.xml.stream.XMLStreamReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.udc.fi.tfg.data.Gender;
 import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.eval.metrics.Qrels;
 
 public class SearchEvalHelper {
 
@@ -28,36 +32,75 @@ public class SearchEvalHelper {
      */
     protected static Set<Topic> parseTopics() {
 
-        final XMLInputFactory factory = XMLInputFactory.newInstance();
         final String topicsPath = DOCS_PATH.concat("/topics2022.xml");
 
-        final Set<Topic> topics = new HashSet<>();
-
         try (final FileInputStream fis = new FileInputStream(topicsPath)) {
-            final XMLStreamReader reader = factory.createXMLStreamReader(fis);
+            return parseTopics(fis);
+        } catch (final XMLStreamException | IOException e) {
+            logger.error("Error reading XML file - {}", e.getMessage());
+        }
+
+        return new HashSet<>();
+    }
 
-            while (reader.hasNext()) {
-                final int event = reader.next();
+    /**
+     * Parses the topics from the given XML stream.
+     *
+     * @param input
+     *            stream with the topics XML.
+     * @return a set with the topics.
+     */
+    protected static Set<Topic> parseTopics(final InputStream input) throws XMLStreamException {
+
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        final XMLStreamReader reader = factory.createXMLStreamReader(input);
+
+        final Set<Topic> topics = new HashSet<>();
 
-                if (event == XMLStreamConstants.START_ELEMENT && "topic".equals(reader.getLocalName())) {
-                    final String id = reader.getAttributeValue(null, "number");
-                    final String description = reader.getElementText().toLowerCase();
+        while (reader.hasNext()) {
+            final int event = reader.next();
 
-                    topics.add(new Topic(id, description));
-                }
+            if (event == XMLStreamConstants.START_ELEMENT && "topic".equals(reader.getLocalName())) {
+                final String id = reader.getAttributeValue(null, "number");
+                final String description = reader.getElementText();
+
+                topics.add(new Topic(id, description));
             }
-        } catch (final XMLStreamException | IOException e) {
-            logger.error("Error reading XML file - {}", e.getMessage());
         }
 
         return topics;
     }
 
-    protected static String getGenderFilterValue(final String gender) {
+    /**
+     * Parses the relevance judgments of the topics.
+     *
+     * @return the judgments, or null if they could not be read.
+     */
+    protected static Qrels parseQrels() {
+
+        final Path qrelsPath = Path.of(DOCS_PATH, "qrels2022.txt");
+
+        try {
+            return Qrels.load(qrelsPath);
+        } catch (final IOException e) {
+            logger.warn("Relevance judgments not available, the run will not be evaluated - {}", e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Map the gender of a topic to the gender of the trials the patient is eligible for, besides those open to all.
+     *
+     * @param gender
+     *            gender word of the topic.
+     * @return the gender, or null if unknown, in which case only trials open to all genders match.
+     */
+    protected static Gender getGenderFilter(final String gender) {
         return switch (gender) {
-        case "woman", "female", "girl" -> "female";
-        case "man", "male", "boy" -> "male";
-        default -> "";
+        case "woman", "female", "girl" -> Gender.FEMALE;
+        case "man", "male", "boy" -> Gender.MALE;
+        default -> null;
         };
     }
 
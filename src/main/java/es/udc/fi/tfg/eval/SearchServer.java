@@ -0,0 +1,313 @@
+package es.udc.fi.tfg.eval;
+
+import static es.udc.fi.tfg.util.Parameters.METRICS_CUT;
+import static es.udc.fi.tfg.util.Parameters.METRICS_PATH;
+import static es.udc.fi.tfg.util.Parameters.N_SERVER_THREADS;
+import static es.udc.fi.tfg.util.Parameters.RERANK_DEPTH;
+import static es.udc.fi.tfg.util.Parameters.SERVER_PORT;
+import static es.udc.fi.tfg.util.Parameters.SERVER_QUEUE_CAPACITY;
+import static es.udc.fi.tfg.util.Parameters.SERVER_REFRESH_SECONDS;
+import static es.udc.fi.tfg.util.Parameters.SIMILARITY;
+import static es.udc.fi.tfg.util.Parameters.TRIALS_PER_TOPIC;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TopDocs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.index.IndexShards;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * Resident search service, so that interactive queries do not pay for starting a JVM and opening the index. Patient
+ * descriptions are searched with the same query and filters as {@link SearchEval}.
+ * <ul>
+ * <li><code>GET /search?q=description&amp;k=10</code>, or <code>POST /search</code> with the description as body,
+ * returns the top <code>k</code> trials as JSON.</li>
+ * <li><code>GET /stats</code> returns the latency percentiles of the requests.</li>
+ * <li><code>GET /metrics</code> returns every counter and histogram of the process.</li>
+ * </ul>
+ * The index is reopened every {@link es.udc.fi.tfg.util.Parameters#SERVER_REFRESH_SECONDS} seconds if it changed, and
+ * requests run on a bounded pool whose overflow is run by the accepting thread, which stops accepting meanwhile.
+ */
+public class SearchServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchServer.class);
+
+    // Query parsers are not thread safe, every request thread builds its own.
+    private static final ThreadLocal<QueryParser> PARSER = ThreadLocal.withInitial(SearchEval::createParser);
+
+    private static final Histogram REQUEST_TIME = Metrics.histogram("server.request");
+
+    private final ReferenceManager<IndexSearcher> searcherManager;
+    // Components of every open searcher, dropped on the first refresh after its reader is closed.
+    private final Map<IndexReader, SearchContext> contexts = new ConcurrentHashMap<>();
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    public SearchServer() throws IOException {
+        searcherManager = IndexShards.openSearcherManager(new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader)
+                    throws IOException {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(SIMILARITY);
+                contexts.put(reader, SearchContext.create(searcher));
+                return searcher;
+            }
+        });
+
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(final boolean didRefresh) {
+                contexts.keySet().removeIf(reader -> reader.getRefCount() == 0);
+                if (didRefresh) {
+                    logger.info("Index reopened with {} trials", numDocs());
+                }
+            }
+        });
+    }
+
+    public static void main(final String[] args) {
+
+        final long start = System.currentTimeMillis();
+        Metrics.registerMBean();
+
+        try {
+            final SearchServer service = new SearchServer();
+            service.warm();
+
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(N_SERVER_THREADS, N_SERVER_THREADS, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SERVER_QUEUE_CAPACITY),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+
+            final HttpServer server = HttpServer.create(new InetSocketAddress(SERVER_PORT), 0);
+            server.createContext("/search", service::handleSearch);
+            server.createContext("/stats", service::handleStats);
+            server.createContext("/metrics", service::handleMetrics);
+            server.setExecutor(executor);
+
+            refresher.scheduleWithFixedDelay(service::refresh, SERVER_REFRESH_SECONDS, SERVER_REFRESH_SECONDS,
+                    TimeUnit.SECONDS);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                refresher.shutdownNow();
+                executor.shutdown();
+                logger.info("Search requests: {} requests, p50 {} ms, p95 {} ms, p99 {} ms", REQUEST_TIME.getCount(),
+                        millis(REQUEST_TIME.percentile(50)), millis(REQUEST_TIME.percentile(95)),
+                        millis(REQUEST_TIME.percentile(99)));
+                Metrics.export(Path.of(METRICS_PATH, "server.json"));
+                service.close();
+            }));
+
+            server.start();
+            logger.info("Serving searches on port {}, ready in {} ms", SERVER_PORT,
+                    System.currentTimeMillis() - start);
+
+        } catch (final IOException e) {
+            logger.error("Error starting the search service - {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Search a patient description.
+     *
+     * @param description
+     *            the description, as written.
+     * @param k
+     *            number of trials returned.
+     * @return the JSON response.
+     */
+    String search(final String description, final int k) throws IOException, ParseException {
+
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            final SearchContext context = contexts.get(searcher.getIndexReader());
+            final Topic topic = new Topic(String.valueOf(requestIds.incrementAndGet()), description);
+
+            final long start = System.nanoTime();
+            final Query query = SearchEval.getQuery(topic, PARSER.get(), context);
+            final long parsed = SearchEval.QUERY_TIME.recordSince(start);
+            // The eligibility stage reranks its whole depth, even if fewer trials are returned.
+            final int n = context.reranker() != null ? Math.max(k, RERANK_DEPTH) : k;
+            final TopDocs hits = SearchEval.rerank(context, topic, query, SearchEval.search(searcher, query, n), n);
+            final long searched = SearchEval.SEARCH_TIME.recordSince(parsed);
+            final String[] nctIds = HitMaterializer.nctIds(searcher.getIndexReader(), hits.scoreDocs,
+                    Math.min(k, hits.scoreDocs.length));
+            final long searchNanos = SearchEval.MATERIALIZE_TIME.recordSince(searched) - start;
+
+            final StringBuilder json = new StringBuilder(64 + 48 * nctIds.length);
+            json.append("{\"took_ms\":").append(millis(searchNanos)).append(",\"hits\":[");
+            for (int i = 0; i < nctIds.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"nct_id\":\"").append(nctIds[i]).append("\",\"score\":")
+                        .append(hits.scoreDocs[i].score).append('}');
+            }
+            return json.append("]}").toString();
+
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private void handleSearch(final HttpExchange exchange) throws IOException {
+
+        final long start = System.nanoTime();
+
+        try {
+            final Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+
+            String description = params.get("q");
+            if (description == null && "POST".equals(exchange.getRequestMethod())) {
+                try (final InputStream body = exchange.getRequestBody()) {
+                    description = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+
+            if (description == null || description.isBlank()) {
+                respond(exchange, 400, "{\"error\":\"missing patient description\"}");
+                return;
+            }
+
+            final int k;
+            try {
+                k = Math.max(1, Math.min(TRIALS_PER_TOPIC,
+                        Integer.parseInt(params.getOrDefault("k", String.valueOf(METRICS_CUT)))));
+            } catch (final NumberFormatException e) {
+                respond(exchange, 400, "{\"error\":\"invalid k\"}");
+                return;
+            }
+
+            respond(exchange, 200, search(description, k));
+
+        } catch (final IOException | ParseException | RuntimeException e) {
+            logger.error("Error serving search - {}", e.getMessage());
+            respond(exchange, 500, "{\"error\":\"search failed\"}");
+        } finally {
+            exchange.close();
+            REQUEST_TIME.recordSince(start);
+        }
+    }
+
+    private void handleStats(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, 200, String.format("{\"requests\":%d,\"p50_ms\":%s,\"p95_ms\":%s,\"p99_ms\":%s}",
+                    REQUEST_TIME.getCount(), millis(REQUEST_TIME.percentile(50)),
+                    millis(REQUEST_TIME.percentile(95)), millis(REQUEST_TIME.percentile(99))));
+        }
+    }
+
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, 200, Metrics.toJson());
+        }
+    }
+
+    /**
+     * Replay the warm-up queries on the current searcher, before the first request is accepted.
+     */
+    private void warm() throws IOException {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexWarmer.warm(contexts.get(searcher.getIndexReader()), PARSER.get(), IndexWarmer.loadQueries());
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (final IOException e) {
+            logger.error("Error refreshing the index - {}", e.getMessage());
+        }
+    }
+
+    private int numDocs() {
+        try {
+            final IndexSearcher searcher = searcherManager.acquire();
+            try {
+                return searcher.getIndexReader().numDocs();
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private void close() {
+        try {
+            searcherManager.close();
+        } catch (final IOException e) {
+            logger.error("Error closing the index - {}", e.getMessage());
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String json) {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try (final OutputStream out = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, body.length);
+            out.write(body);
+        } catch (final IOException e) {
+            // The headers of a failed search may already be sent, nothing else can be told to the client.
+            logger.debug("Error writing response - {}", e.getMessage());
+        }
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static Map<String, String> queryParams(final String rawQuery) {
+        final Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (final String pair : rawQuery.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+}
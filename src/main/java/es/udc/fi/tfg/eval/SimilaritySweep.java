@@ -0,0 +1,322 @@
+package es.udc.fi.tfg.eval;
+
+import static es.udc.fi.tfg.util.Parameters.FUSION_RRF_K;
+import static es.udc.fi.tfg.util.Parameters.METRICS_CUT;
+import static es.udc.fi.tfg.util.Parameters.N_SEARCH_THREADS;
+import static es.udc.fi.tfg.util.Parameters.SIGNIFICANCE_CONFIDENCE;
+import static es.udc.fi.tfg.util.Parameters.SIGNIFICANCE_ITERATIONS;
+import static es.udc.fi.tfg.util.Parameters.SIGNIFICANCE_MEASURE;
+import static es.udc.fi.tfg.util.Parameters.SIGNIFICANCE_SEED;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_BM25_BS;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_BM25_K1S;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_DIRICHLET_MUS;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_FUSION;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_JM_LAMBDAS;
+import static es.udc.fi.tfg.util.Parameters.SWEEP_PATH;
+import static es.udc.fi.tfg.util.Parameters.TRIALS_PER_TOPIC;
+import static es.udc.fi.tfg.util.Parameters.USE_FILTER_CACHE;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.data.Topic;
+import es.udc.fi.tfg.eval.metrics.MeanMetrics;
+import es.udc.fi.tfg.eval.metrics.Qrels;
+import es.udc.fi.tfg.eval.metrics.SignificanceTests;
+import es.udc.fi.tfg.eval.metrics.TopicMetrics;
+import es.udc.fi.tfg.eval.metrics.TopicQrels;
+import es.udc.fi.tfg.index.IndexShards;
+
+/**
+ * Evaluates a grid of similarities in a single run. The index is opened and every topic's query parsed once, then
+ * each configuration searches the shared reader in parallel through its own {@link IndexSearcher}, writing its run to
+ * {@link es.udc.fi.tfg.util.Parameters#SWEEP_PATH} and a row of the summary table. The runs are kept in memory and
+ * fused into one more run, and every run is then tested against the best one, topic by topic.
+ */
+public class SimilaritySweep {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimilaritySweep.class);
+
+    /**
+     * A point of the grid.
+     *
+     * @param name
+     *            name of the run, also used for its file.
+     * @param similarity
+     *            similarity of the run.
+     */
+    private record SweepConfig(String name, Similarity similarity) {
+    }
+
+    /**
+     * Outcome of a point of the grid.
+     *
+     * @param metrics
+     *            metrics of the run, empty if there are no judgments.
+     * @param run
+     *            the run, kept in memory for fusion.
+     */
+    private record SweepResult(MeanMetrics metrics, Run run) {
+    }
+
+    public static void main(final String[] args) {
+
+        final List<Topic> topics = new ArrayList<>(SearchEvalHelper.parseTopics());
+        topics.sort(Comparator.comparingInt(Topic::getId));
+        final Qrels qrels = SearchEvalHelper.parseQrels();
+
+        final List<SweepConfig> configs = getConfigs();
+        final ExecutorService executor = Executors.newFixedThreadPool(N_SEARCH_THREADS);
+
+        try (final IndexReader reader = IndexShards.openReader()) {
+
+            final Path outputDir = Files.createDirectories(Path.of(SWEEP_PATH));
+
+            // Every configuration builds its own queries, but demographic filters are matched once for all of them.
+            final DemographicFilterCache filterCache = USE_FILTER_CACHE
+                    ? new DemographicFilterCache(new IndexSearcher(reader))
+                    : null;
+
+            logger.info("Sweeping {} configurations over {} topics", configs.size(), topics.size());
+
+            final List<Future<SweepResult>> results = new ArrayList<>(configs.size());
+            for (final SweepConfig config : configs) {
+                results.add(executor.submit(() -> runConfig(config, reader, filterCache, topics, qrels, outputDir)));
+            }
+
+            try (final BufferedWriter summary = Files.newBufferedWriter(outputDir.resolve("summary.tsv"),
+                    StandardCharsets.UTF_8)) {
+                summary.write("run\tP@" + METRICS_CUT + "\tMRR\tnDCG@" + METRICS_CUT + "\tR-Prec");
+                summary.newLine();
+
+                final List<String> names = new ArrayList<>(configs.size() + 1);
+                final List<MeanMetrics> evaluated = new ArrayList<>(configs.size() + 1);
+                final List<Run> runs = new ArrayList<>(configs.size());
+
+                for (int i = 0; i < configs.size(); i++) {
+                    final String name = configs.get(i).name();
+                    try {
+                        final SweepResult result = results.get(i).get();
+                        names.add(name);
+                        evaluated.add(result.metrics());
+                        runs.add(result.run());
+                        writeSummary(summary, name, result.metrics());
+                    } catch (final ExecutionException e) {
+                        logger.error("Error running configuration {} - {}", name, e.getCause().getMessage());
+                    }
+                }
+
+                if (SWEEP_FUSION != null && runs.size() > 1) {
+                    final String name = "FUSED_" + SWEEP_FUSION;
+                    final MeanMetrics metrics = fuseRuns(name, runs, reader, topics, qrels, outputDir);
+                    names.add(name);
+                    evaluated.add(metrics);
+                    writeSummary(summary, name, metrics);
+                }
+
+                if (qrels != null && evaluated.size() > 1) {
+                    writeSignificance(names, evaluated, outputDir);
+                }
+            }
+
+        } catch (final IOException e) {
+            logger.error("Error handling the index - {}", e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Sweep interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void writeSummary(final BufferedWriter summary, final String name, final MeanMetrics metrics)
+            throws IOException {
+        summary.write(String.format(Locale.ROOT, "%s\t%.4f\t%.4f\t%.4f\t%.4f", name, metrics.getMP(),
+                metrics.getMRR(), metrics.getMnDCG(), metrics.getMRP()));
+        summary.newLine();
+        logger.info("Run {}: P@{} = {}, MRR = {}, nDCG@{} = {}, R-Prec = {}", name, METRICS_CUT, metrics.getMP(),
+                metrics.getMRR(), METRICS_CUT, metrics.getMnDCG(), metrics.getMRP());
+    }
+
+    /**
+     * Fuse the runs of every configuration in memory, then write and evaluate the fused run like any other.
+     *
+     * @param name
+     *            name of the fused run.
+     * @param runs
+     *            the runs of the configurations.
+     * @return the metrics of the fused run.
+     */
+    private static MeanMetrics fuseRuns(final String name, final List<Run> runs, final IndexReader reader,
+            final List<Topic> topics, final Qrels qrels, final Path outputDir) throws IOException {
+
+        final long start = System.currentTimeMillis();
+        final Run fused = new RunFusion(SWEEP_FUSION, FUSION_RRF_K, TRIALS_PER_TOPIC).fuse(name, runs);
+        logger.info("Fused {} runs with {} in {} ms", runs.size(), SWEEP_FUSION, System.currentTimeMillis() - start);
+
+        final MeanMetrics meanMetrics = new MeanMetrics();
+        try (final RunWriter writer = new RunWriter(outputDir.resolve(name + ".txt"), name)) {
+            for (int i = 0; i < topics.size(); i++) {
+                final ScoreDoc[] hits = fused.getHits(i);
+                writeTopic(writer, topics.get(i), hits, hits.length, reader, qrels, meanMetrics);
+            }
+        }
+        return meanMetrics;
+    }
+
+    /**
+     * Test every configuration against the best one on
+     * {@link es.udc.fi.tfg.util.Parameters#SIGNIFICANCE_MEASURE}, and write the tests to the significance table.
+     *
+     * @param names
+     *            names of the evaluated configurations.
+     * @param runs
+     *            their metrics.
+     * @param outputDir
+     *            folder of the sweep.
+     */
+    private static void writeSignificance(final List<String> names, final List<MeanMetrics> runs,
+            final Path outputDir) throws IOException {
+
+        final long start = System.currentTimeMillis();
+
+        int best = 0;
+        double bestMean = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < runs.size(); i++) {
+            final double mean = Arrays.stream(runs.get(i).getValues(SIGNIFICANCE_MEASURE)).average().orElse(0);
+            if (mean > bestMean) {
+                best = i;
+                bestMean = mean;
+            }
+        }
+
+        final SignificanceTests tests = new SignificanceTests(ForkJoinPool.commonPool(), SIGNIFICANCE_ITERATIONS,
+                SIGNIFICANCE_CONFIDENCE, SIGNIFICANCE_SEED);
+        final List<SignificanceTests.Comparison> comparisons = tests.compare(names, runs, SIGNIFICANCE_MEASURE, best);
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve("significance.tsv"),
+                StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT,
+                    "run\tbaseline\tmeasure\tdifference\tt-test p\tpermutation p\tCI %.0f%%",
+                    100 * SIGNIFICANCE_CONFIDENCE));
+            writer.newLine();
+            for (final SignificanceTests.Comparison c : comparisons) {
+                writer.write(String.format(Locale.ROOT, "%s\t%s\t%s\t%.4f\t%.4f\t%.4f\t[%.4f, %.4f]", c.run(),
+                        c.baseline(), SIGNIFICANCE_MEASURE, c.meanDifference(), c.tTestP(), c.permutationP(),
+                        c.lowerBound(), c.upperBound()));
+                writer.newLine();
+            }
+        }
+
+        logger.info("Tested {} configurations against {} on {} with {} resamples in {} ms", comparisons.size(),
+                names.get(best), SIGNIFICANCE_MEASURE, SIGNIFICANCE_ITERATIONS, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Build the grid of similarities from the sweep parameters.
+     *
+     * @return the configurations.
+     */
+    private static List<SweepConfig> getConfigs() {
+
+        final List<SweepConfig> configs = new ArrayList<>();
+
+        for (final float lambda : SWEEP_JM_LAMBDAS) {
+            configs.add(new SweepConfig(name("JM", lambda), new LMJelinekMercerSimilarity(lambda)));
+        }
+        for (final float mu : SWEEP_DIRICHLET_MUS) {
+            configs.add(new SweepConfig(name("DIR", mu), new LMDirichletSimilarity(mu)));
+        }
+        for (final float k1 : SWEEP_BM25_K1S) {
+            for (final float b : SWEEP_BM25_BS) {
+                configs.add(new SweepConfig(name("BM25", k1) + name("", b), new BM25Similarity(k1, b)));
+            }
+        }
+
+        return configs;
+    }
+
+    private static String name(final String prefix, final float value) {
+        return prefix + "_" + String.valueOf(value).replace('.', '_');
+    }
+
+    /**
+     * Search every topic with one configuration, writing its run.
+     *
+     * @return the metrics and hits of the run.
+     */
+    private static SweepResult runConfig(final SweepConfig config, final IndexReader reader,
+            final DemographicFilterCache filterCache, final List<Topic> topics, final Qrels qrels,
+            final Path outputDir) throws IOException, ParseException {
+
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(config.similarity());
+
+        // Combined sections can only be scored with BM25, so queries are built for the similarity of the run.
+        final SearchContext context = SearchContext.forQueries(searcher, filterCache);
+        final QueryParser parser = SearchEval.createParser();
+        final List<Query> queries = new ArrayList<>(topics.size());
+        for (final Topic topic : topics) {
+            queries.add(SearchEval.getQuery(topic, parser, context));
+        }
+
+        final MeanMetrics meanMetrics = new MeanMetrics();
+        final Run run = new Run(config.name(), topics.size());
+
+        try (final RunWriter writer = new RunWriter(outputDir.resolve(config.name() + ".txt"), config.name())) {
+            for (int i = 0; i < topics.size(); i++) {
+                final TopDocs hits = SearchEval.search(searcher, queries.get(i));
+                final int cut = Math.min(hits.scoreDocs.length, TRIALS_PER_TOPIC);
+                writeTopic(writer, topics.get(i), hits.scoreDocs, cut, reader, qrels, meanMetrics);
+                run.set(i, hits.scoreDocs, cut);
+            }
+        }
+
+        return new SweepResult(meanMetrics, run);
+    }
+
+    /**
+     * Write the first hits of a topic to its run, ties in trec_eval order, and evaluate them.
+     */
+    private static void writeTopic(final RunWriter writer, final Topic topic, final ScoreDoc[] hits, final int count,
+            final IndexReader reader, final Qrels qrels, final MeanMetrics meanMetrics) throws IOException {
+
+        final String[] nctIds = HitMaterializer.nctIds(reader, hits, count);
+        HitMaterializer.breakTies(hits, nctIds);
+        SearchEval.writeRun(writer, topic, hits, nctIds);
+
+        final TopicQrels topicQrels = qrels == null ? null : qrels.get(topic.getId());
+        if (topicQrels != null) {
+            final TopicMetrics metrics = new TopicMetrics(nctIds, topicQrels);
+            meanMetrics.updateMetrics(topic.getId(), metrics.getP(METRICS_CUT), metrics.getRR(),
+                    metrics.getNDCG(METRICS_CUT), metrics.getRP(), metrics.getRecall(TRIALS_PER_TOPIC));
+        }
+    }
+}
@@ -1,22 +1,51 @@
 package es.udc.fi.tfg.eval.metrics;
 
+import java.util.Arrays;
+
+/**
+ * Means of a run, along with the value of every measure for every topic so that runs can be compared topic by topic.
+ * Topics are kept in the order they are added.
+ */
 public class MeanMetrics {
 
+    private static final int INITIAL_TOPICS = 64;
+
     private double sumOfP = 0.0;
     private double sumOfRR = 0.0;
     private double sumOfnDCG = 0.0;
     private double sumOfRP = 0.0;
+    private double sumOfRecall = 0.0;
     private int totalMetrics = 0;
 
-    public void updateMetrics(final double p, final double rr, final double ndcg, final double rp) {
+    private int[] topicIds = new int[INITIAL_TOPICS];
+    private final double[][] values = new double[Measure.values().length][INITIAL_TOPICS];
+
+    public void updateMetrics(final int topicId, final double p, final double rr, final double ndcg, final double rp,
+            final double recall) {
         sumOfP += p;
         sumOfRR += rr;
         sumOfRP += rp;
+        sumOfRecall += recall;
 
         if (!Double.isNaN(ndcg)) {
             sumOfnDCG += ndcg;
         }
 
+        if (totalMetrics == topicIds.length) {
+            topicIds = Arrays.copyOf(topicIds, 2 * totalMetrics);
+            for (int m = 0; m < values.length; m++) {
+                values[m] = Arrays.copyOf(values[m], 2 * totalMetrics);
+            }
+        }
+
+        // A topic without relevant judgments counts as 0 nDCG, as in the mean.
+        topicIds[totalMetrics] = topicId;
+        values[Measure.P.ordinal()][totalMetrics] = p;
+        values[Measure.RR.ordinal()][totalMetrics] = rr;
+        values[Measure.NDCG.ordinal()][totalMetrics] = Double.isNaN(ndcg) ? 0 : ndcg;
+        values[Measure.RP.ordinal()][totalMetrics] = rp;
+        values[Measure.RECALL.ordinal()][totalMetrics] = recall;
+
         totalMetrics++;
     }
 
@@ -39,4 +68,19 @@ public class MeanMetrics {
     public double getMRP() {
         return totalMetrics == 0 ? 0 : sumOfRP / totalMetrics;
     }
-}
\ No newline at end of file
+
+    // Mean Recall
+    public double getMRecall() {
+        return totalMetrics == 0 ? 0 : sumOfRecall / totalMetrics;
+    }
+
+    // Ids of the evaluated topics, in the order they were added
+    public int[] getTopicIds() {
+        return Arrays.copyOf(topicIds, totalMetrics);
+    }
+
+    // Value of a measure for every topic, in the order of getTopicIds
+    public double[] getValues(final Measure measure) {
+        return Arrays.copyOf(values[measure.ordinal()], totalMetrics);
+    }
+}
@@ -0,0 +1,8 @@
+package es.udc.fi.tfg.eval.metrics;
+
+/**
+ * Per-topic measures kept by {@link MeanMetrics}.
+ */
+public enum Measure {
+    P, RR, NDCG, RP, RECALL
+}
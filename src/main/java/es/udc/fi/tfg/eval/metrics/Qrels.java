@@ -0,0 +1,75 @@
+package es.udc.fi.tfg.eval.metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relevance judgments of every topic, loaded once from a TREC qrels file with lines of the form
+ * <code>topic iteration docid relevance</code>.
+ */
+public class Qrels {
+
+    private final Map<Integer, TopicQrels> topics;
+
+    private Qrels(final Map<Integer, TopicQrels> topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * Load a qrels file.
+     *
+     * @param file
+     *            the qrels file.
+     * @return the judgments.
+     * @throws IOException
+     *             if the file could not be read.
+     */
+    public static Qrels load(final Path file) throws IOException {
+
+        final Map<Integer, List<String>> docIds = new HashMap<>();
+        final Map<Integer, List<Integer>> relevances = new HashMap<>();
+
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.trim().split("\\s+");
+                if (fields.length < 4) {
+                    continue;
+                }
+                final int topic = Integer.parseInt(fields[0]);
+                docIds.computeIfAbsent(topic, t -> new ArrayList<>()).add(fields[2].toLowerCase());
+                relevances.computeIfAbsent(topic, t -> new ArrayList<>()).add(Integer.parseInt(fields[3]));
+            }
+        }
+
+        final Map<Integer, TopicQrels> topics = new HashMap<>();
+        docIds.forEach((topic, ids) -> {
+            final List<Integer> rels = relevances.get(topic);
+            final int[] relevance = new int[rels.size()];
+            for (int i = 0; i < relevance.length; i++) {
+                relevance[i] = rels.get(i);
+            }
+            topics.put(topic, new TopicQrels(ids.toArray(new String[0]), relevance));
+        });
+
+        return new Qrels(topics);
+    }
+
+    /**
+     * Judgments of a topic.
+     *
+     * @param topic
+     *            id of the topic.
+     * @return the judgments, or null if the topic was not judged.
+     */
+    public TopicQrels get(final int topic) {
+        return topics.get(topic);
+    }
+}
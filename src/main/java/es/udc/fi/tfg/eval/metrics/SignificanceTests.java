@@ -0,0 +1,346 @@
+package es.udc.fi.tfg.eval.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Paired significance tests between runs evaluated on the same topics: the paired t-test, a randomized permutation
+ * test and a bootstrap confidence interval of the mean difference. Resampling iterations are split into fork/join
+ * tasks, each with its own random generator seeded from the first iteration it runs, so results only depend on the
+ * seed and not on the number of threads. Per-topic differences are kept in a primitive array and resampled means are
+ * written straight into another one.
+ */
+public class SignificanceTests {
+
+    /** Iterations below which a task runs them instead of splitting. */
+    private static final int SEQUENTIAL_ITERATIONS = 4096;
+
+    /**
+     * Comparison of a run with the baseline.
+     *
+     * @param baseline
+     *            name of the baseline run.
+     * @param run
+     *            name of the compared run.
+     * @param meanDifference
+     *            mean of the run minus mean of the baseline.
+     * @param tTestP
+     *            two-sided p-value of the paired t-test.
+     * @param permutationP
+     *            two-sided p-value of the permutation test.
+     * @param lowerBound
+     *            lower bound of the bootstrap confidence interval of the mean difference.
+     * @param upperBound
+     *            upper bound of the interval.
+     */
+    public record Comparison(String baseline, String run, double meanDifference, double tTestP, double permutationP,
+            double lowerBound, double upperBound) {
+    }
+
+    private final ForkJoinPool pool;
+    private final int iterations;
+    private final double confidence;
+    private final long seed;
+
+    /**
+     * @param pool
+     *            pool the resampling runs on.
+     * @param iterations
+     *            resamples of the permutation test and of the bootstrap.
+     * @param confidence
+     *            level of the bootstrap interval, such as 0.95.
+     * @param seed
+     *            seed of every resampling.
+     */
+    public SignificanceTests(final ForkJoinPool pool, final int iterations, final double confidence,
+            final long seed) {
+        this.pool = pool;
+        this.iterations = iterations;
+        this.confidence = confidence;
+        this.seed = seed;
+    }
+
+    /**
+     * Compare every run with a baseline, all comparisons in parallel.
+     *
+     * @param names
+     *            names of the runs.
+     * @param runs
+     *            metrics of the runs, over the same topics in the same order.
+     * @param measure
+     *            the compared measure.
+     * @param baseline
+     *            index of the baseline run.
+     * @return one comparison per run other than the baseline, in run order.
+     * @throws IllegalArgumentException
+     *             if the runs were not evaluated on the same topics.
+     */
+    public List<Comparison> compare(final List<String> names, final List<MeanMetrics> runs, final Measure measure,
+            final int baseline) {
+
+        final int[] topicIds = runs.get(baseline).getTopicIds();
+        final double[] baselineValues = runs.get(baseline).getValues(measure);
+
+        final List<ForkJoinTask<Comparison>> tasks = new ArrayList<>(runs.size());
+        for (int i = 0; i < runs.size(); i++) {
+            if (i == baseline) {
+                continue;
+            }
+            if (!Arrays.equals(topicIds, runs.get(i).getTopicIds())) {
+                throw new IllegalArgumentException(String.format("Runs '%s' and '%s' were evaluated on different topics",
+                        names.get(baseline), names.get(i)));
+            }
+            final String name = names.get(i);
+            final double[] values = runs.get(i).getValues(measure);
+            tasks.add(ForkJoinTask.adapt(() -> compare(names.get(baseline), baselineValues, name, values)));
+        }
+
+        return pool.invoke(new RecursiveTask<List<Comparison>>() {
+            @Override
+            protected List<Comparison> compute() {
+                return invokeAll(tasks).stream().map(ForkJoinTask::join).toList();
+            }
+        });
+    }
+
+    /**
+     * Compare a run with a baseline.
+     *
+     * @param baselineName
+     *            name of the baseline.
+     * @param baseline
+     *            per-topic values of the baseline.
+     * @param name
+     *            name of the run.
+     * @param run
+     *            per-topic values of the run, over the same topics.
+     * @return the comparison.
+     */
+    public Comparison compare(final String baselineName, final double[] baseline, final String name,
+            final double[] run) {
+
+        final int n = baseline.length;
+        final double[] differences = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            differences[i] = run[i] - baseline[i];
+            sum += differences[i];
+        }
+
+        // A sum left by rounding on equal runs must not count as a difference.
+        final double observed = Math.abs(sum) - 1e-12;
+        final long extreme = run(new PermutationTask(differences, observed, 0, iterations, seed));
+
+        final double[] means = new double[iterations];
+        run(new BootstrapTask(differences, means, 0, iterations, seed));
+        Arrays.sort(means);
+        final double alpha = 1 - confidence;
+        final int lower = (int) Math.floor(alpha / 2 * iterations);
+        final int upper = Math.max(lower, (int) Math.ceil((1 - alpha / 2) * iterations) - 1);
+
+        return new Comparison(baselineName, name, n == 0 ? 0 : sum / n, pairedT(differences),
+                (extreme + 1.0) / (iterations + 1.0), n == 0 ? 0 : means[lower], n == 0 ? 0 : means[upper]);
+    }
+
+    /**
+     * Run a task on the pool, or on the calling worker if the comparisons are already running in it.
+     */
+    private <T> T run(final ForkJoinTask<T> task) {
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+    }
+
+    /**
+     * Two-sided p-value of the paired t-test.
+     *
+     * @param differences
+     *            per-topic differences between the runs.
+     * @return the p-value.
+     */
+    public static double pairedT(final double[] differences) {
+
+        final int n = differences.length;
+        if (n < 2) {
+            return 1;
+        }
+
+        double mean = 0;
+        for (final double d : differences) {
+            mean += d;
+        }
+        mean /= n;
+
+        double squares = 0;
+        for (final double d : differences) {
+            squares += (d - mean) * (d - mean);
+        }
+        final double sd = Math.sqrt(squares / (n - 1));
+        if (sd == 0) {
+            return mean == 0 ? 1 : 0;
+        }
+
+        final double t = mean / (sd / Math.sqrt(n));
+        final double df = n - 1;
+        return regularizedBeta(df / (df + t * t), df / 2, 0.5);
+    }
+
+    /**
+     * Counts the sign flips of the differences whose summed difference is at least as extreme as the observed one.
+     */
+    private static class PermutationTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] differences;
+        private final double observed;
+        private final int from;
+        private final int to;
+        private final long seed;
+
+        PermutationTask(final double[] differences, final double observed, final int from, final int to,
+                final long seed) {
+            this.differences = differences;
+            this.observed = observed;
+            this.from = from;
+            this.to = to;
+            this.seed = seed;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > SEQUENTIAL_ITERATIONS) {
+                final int mid = (from + to) >>> 1;
+                final PermutationTask left = new PermutationTask(differences, observed, from, mid, seed);
+                left.fork();
+                final long right = new PermutationTask(differences, observed, mid, to, seed).compute();
+                return left.join() + right;
+            }
+
+            final SplittableRandom random = new SplittableRandom(seed + from);
+            long extreme = 0;
+            for (int it = from; it < to; it++) {
+                double sum = 0;
+                long bits = 0;
+                for (int i = 0; i < differences.length; i++) {
+                    if ((i & 63) == 0) {
+                        bits = random.nextLong();
+                    }
+                    sum += (bits & 1) == 0 ? differences[i] : -differences[i];
+                    bits >>>= 1;
+                }
+                if (Math.abs(sum) >= observed) {
+                    extreme++;
+                }
+            }
+            return extreme;
+        }
+    }
+
+    /**
+     * Writes the mean difference of a resample with replacement of the topics into every slot of its range.
+     */
+    private static class BootstrapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] differences;
+        private final double[] means;
+        private final int from;
+        private final int to;
+        private final long seed;
+
+        BootstrapTask(final double[] differences, final double[] means, final int from, final int to,
+                final long seed) {
+            this.differences = differences;
+            this.means = means;
+            this.from = from;
+            this.to = to;
+            this.seed = seed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SEQUENTIAL_ITERATIONS) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new BootstrapTask(differences, means, from, mid, seed),
+                        new BootstrapTask(differences, means, mid, to, seed));
+                return;
+            }
+
+            final int n = differences.length;
+            final SplittableRandom random = new SplittableRandom(~seed + from);
+            for (int it = from; it < to; it++) {
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += differences[random.nextInt(n)];
+                }
+                means[it] = n == 0 ? 0 : sum / n;
+            }
+        }
+    }
+
+    /**
+     * Regularized incomplete beta function I_x(a, b), by its continued fraction.
+     */
+    private static double regularizedBeta(final double x, final double a, final double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        final double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x)
+                + b * Math.log(1 - x));
+        // The fraction converges fast on one side of the mean of the distribution, the other side uses symmetry.
+        return x < (a + 1) / (a + b + 2) ? front * betaFraction(x, a, b) / a
+                : 1 - front * betaFraction(1 - x, b, a) / b;
+    }
+
+    private static double betaFraction(final double x, final double a, final double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double h = d;
+        for (int m = 1; m <= 300; m++) {
+            final int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 / nonZero(1 + aa * d, tiny);
+            c = nonZero(1 + aa / c, tiny);
+            h *= d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 / nonZero(1 + aa * d, tiny);
+            c = nonZero(1 + aa / c, tiny);
+            final double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < 1e-14) {
+                break;
+            }
+        }
+        return h;
+    }
+
+    private static double nonZero(final double value, final double tiny) {
+        return Math.abs(value) < tiny ? tiny : value;
+    }
+
+    /**
+     * Logarithm of the gamma function, by the Lanczos approximation.
+     */
+    private static double logGamma(final double x) {
+        final double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+        double y = x;
+        final double tmp = x + 5.5 - (x + 0.5) * Math.log(x + 5.5);
+        double series = 1.000000000190015;
+        for (final double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+}
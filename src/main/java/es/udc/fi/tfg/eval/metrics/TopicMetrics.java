@@ -1,31 +1,35 @@
 package es.udc.fi.tfg.eval.metrics;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 public class TopicMetrics {
 
-    private final List<Integer> dcgRelevance = new ArrayList<>();
+    private final int[] relevance;
+    private final TopicQrels qrels;
 
     private int firstRelevantPos = Integer.MAX_VALUE;
-    private int relevantRetrieved = 0;
 
-    public TopicMetrics() {
-    }
+    /**
+     * Compute the metrics of a ranking.
+     *
+     * @param docIds
+     *            ids of the retrieved documents in rank order, lowercased.
+     * @param qrels
+     *            judgments of the topic.
+     */
+    public TopicMetrics(final String[] docIds, final TopicQrels qrels) {
+        this.qrels = qrels;
+        this.relevance = new int[docIds.length];
 
-    public void updateMetrics(final int relevance, final int i) {
-        if (relevance == 2) {
-            firstRelevantPos = Math.min(firstRelevantPos, i);
-            relevantRetrieved++;
+        for (int i = 0; i < docIds.length; i++) {
+            relevance[i] = qrels.relevance(docIds[i]);
+            if (relevance[i] >= TopicQrels.RELEVANT) {
+                firstRelevantPos = Math.min(firstRelevantPos, i);
+            }
         }
-
-        dcgRelevance.add(relevance);
     }
 
     // Precision at cut
     public double getP(final int cut) {
-        return (double) relevantRetrieved / cut;
+        return (double) relevantAt(cut) / cut;
     }
 
     // Reciprocal Rank
@@ -33,27 +37,52 @@ public class TopicMetrics {
         return firstRelevantPos == Integer.MAX_VALUE ? 0.0 : (double) 1 / (firstRelevantPos + 1);
     }
 
+    // R-Precision
+    public double getRP() {
+        final int r = qrels.getRelevantCount();
+        return r == 0 ? 0.0 : (double) relevantAt(r) / r;
+    }
+
+    // Recall at cut
+    public double getRecall(final int cut) {
+        final int r = qrels.getRelevantCount();
+        return r == 0 ? 0.0 : (double) relevantAt(cut) / r;
+    }
+
     // Discounted Cumulative Gain at cut
     public double getDCG(final int cut) {
         double dcg = 0.0;
-        for (int i = 0; i < cut; i++) {
-            dcg += (Math.pow(2, dcgRelevance.get(i)) - 1) / log2(i + 2);
+        for (int i = 0; i < Math.min(cut, relevance.length); i++) {
+            dcg += (Math.pow(2, relevance[i]) - 1) / log2(i + 2);
         }
         return dcg;
     }
 
-    // Ideal Discounted Cumulative Gain at cut
+    // Ideal Discounted Cumulative Gain at cut, from the judgments rather than the retrieved list
     public double getIDCG(final int cut) {
-        final List<Integer> sortedRelevance = new ArrayList<>(dcgRelevance);
-        sortedRelevance.sort(Collections.reverseOrder());
-
         double idcg = 0.0;
         for (int i = 0; i < cut; i++) {
-            idcg += (Math.pow(2, sortedRelevance.get(i)) - 1) / log2(i + 2);
+            idcg += (Math.pow(2, qrels.idealRelevance(i)) - 1) / log2(i + 2);
         }
         return idcg;
     }
 
+    // Normalized Discounted Cumulative Gain at cut, NaN if the topic has no relevant judgments
+    public double getNDCG(final int cut) {
+        final double idcg = getIDCG(cut);
+        return idcg == 0.0 ? Double.NaN : getDCG(cut) / idcg;
+    }
+
+    private int relevantAt(final int cut) {
+        int count = 0;
+        for (int i = 0; i < Math.min(cut, relevance.length); i++) {
+            if (relevance[i] >= TopicQrels.RELEVANT) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     private double log2(final double x) {
         return Math.log(x) / Math.log(2);
     }
@@ -0,0 +1,101 @@
+package es.udc.fi.tfg.eval.metrics;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.IntroSorter;
+
+/**
+ * Relevance judgments of a single topic, held in primitive arrays sorted by document id so lookups are binary
+ * searches. The ideal ranking is computed once from the judgments.
+ */
+public class TopicQrels {
+
+    public static final int RELEVANT = 2;
+
+    private final String[] docIds;
+    private final int[] relevance;
+    private final int[] idealRelevance;
+    private final int relevantCount;
+
+    /**
+     * @param docIds
+     *            ids of the judged documents, lowercased.
+     * @param relevance
+     *            relevance of each judged document.
+     */
+    public TopicQrels(final String[] docIds, final int[] relevance) {
+
+        // Judgments sorted in place as parallel arrays, never through boxed indices.
+        final String[] ids = docIds.clone();
+        final int[] rels = relevance.clone();
+        new IntroSorter() {
+            private String pivot;
+
+            @Override
+            protected void swap(final int i, final int j) {
+                final String id = ids[i];
+                ids[i] = ids[j];
+                ids[j] = id;
+                final int rel = rels[i];
+                rels[i] = rels[j];
+                rels[j] = rel;
+            }
+
+            @Override
+            protected int compare(final int i, final int j) {
+                return ids[i].compareTo(ids[j]);
+            }
+
+            @Override
+            protected void setPivot(final int i) {
+                pivot = ids[i];
+            }
+
+            @Override
+            protected int comparePivot(final int j) {
+                return pivot.compareTo(ids[j]);
+            }
+        }.sort(0, ids.length);
+        this.docIds = ids;
+        this.relevance = rels;
+
+        // Sorted ascending, read backwards as the ideal ranking.
+        idealRelevance = relevance.clone();
+        Arrays.sort(idealRelevance);
+
+        int count = 0;
+        for (final int rel : relevance) {
+            if (rel >= RELEVANT) {
+                count++;
+            }
+        }
+        relevantCount = count;
+    }
+
+    /**
+     * Relevance of a document.
+     *
+     * @param docId
+     *            id of the document, lowercased.
+     * @return the judged relevance, or 0 if the document was not judged.
+     */
+    public int relevance(final String docId) {
+        final int i = Arrays.binarySearch(docIds, docId);
+        return i >= 0 ? relevance[i] : 0;
+    }
+
+    /**
+     * Relevance of the document at the given position of the ideal ranking.
+     *
+     * @param rank
+     *            zero based position.
+     * @return the relevance, or 0 past the last judged document.
+     */
+    public int idealRelevance(final int rank) {
+        return rank < idealRelevance.length ? idealRelevance[idealRelevance.length - 1 - rank] : 0;
+    }
+
+    public int getRelevantCount() {
+        return relevantCount;
+    }
+}
@@ -0,0 +1,213 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.util.Parameters.BULK_LOAD;
+import static es.udc.fi.tfg.util.Parameters.HNSW_BEAM_WIDTH;
+import static es.udc.fi.tfg.util.Parameters.HNSW_M;
+import static es.udc.fi.tfg.util.Parameters.INDEX_SORT;
+import static es.udc.fi.tfg.util.Parameters.MAX_BUFFERED_DOCS;
+import static es.udc.fi.tfg.util.Parameters.MERGE_SEGMENTS_PER_TIER;
+import static es.udc.fi.tfg.util.Parameters.MERGE_THREADS;
+import static es.udc.fi.tfg.util.Parameters.RAM_BUFFER_MB;
+import static es.udc.fi.tfg.util.Parameters.SIMILARITY;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene95.Lucene95Codec;
+import org.apache.lucene.codecs.lucene95.Lucene95HnswVectorsFormat;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.InfoStream;
+import org.slf4j.Logger;
+
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * Builds the {@link IndexWriterConfig} of an indexing run and collects its flush and merge statistics. With
+ * {@link es.udc.fi.tfg.util.Parameters#BULK_LOAD} the writer buffers as many documents as the configured RAM allows,
+ * merges with one thread per spare core and writes no compound files; otherwise Lucene's defaults are kept, so both
+ * profiles can be compared on the same summary.
+ */
+public class IndexProfile {
+
+    private static final Histogram FLUSH_TIME = Metrics.histogram("index.flush");
+    private static final Histogram MERGE_TIME = Metrics.histogram("index.merge");
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder mergeNanos = new LongAdder();
+
+    /**
+     * Create the writer configuration of this profile.
+     *
+     * @param openMode
+     *            open mode of the writer.
+     * @return the configuration.
+     */
+    public IndexWriterConfig createConfig(final IndexWriterConfig.OpenMode openMode) {
+        return createConfig(openMode, 1, INDEX_SORT.sort());
+    }
+
+    /**
+     * Index sort of a writer over a directory. A new index is sorted by
+     * {@link es.udc.fi.tfg.util.Parameters#INDEX_SORT}, but {@link org.apache.lucene.index.IndexWriter} rejects a sort
+     * other than the one of the segments it appends to, so an update keeps the sort the index was built with until it
+     * is rebuilt.
+     *
+     * @param dir
+     *            directory of the index.
+     * @param openMode
+     *            open mode of the writer.
+     * @return the sort, null for none.
+     * @throws IOException
+     *             if the latest commit of the index could not be read.
+     */
+    public static Sort indexSort(final Directory dir, final IndexWriterConfig.OpenMode openMode) throws IOException {
+
+        if (openMode == IndexWriterConfig.OpenMode.CREATE || !DirectoryReader.indexExists(dir)) {
+            return INDEX_SORT.sort();
+        }
+
+        final SegmentInfos infos = SegmentInfos.readLatestCommit(dir);
+        if (infos.size() == 0) {
+            return INDEX_SORT.sort();
+        }
+
+        return infos.info(0).info.getIndexSort();
+    }
+
+    /**
+     * Create the configuration of one of the writers of a sharded index, which share the RAM buffer and merge
+     * threads of the profile.
+     *
+     * @param openMode
+     *            open mode of the writer.
+     * @param shards
+     *            number of writers of the index.
+     * @param indexSort
+     *            order of the documents in every segment, null for none. See {@link #indexSort}.
+     * @return the configuration.
+     */
+    public IndexWriterConfig createConfig(final IndexWriterConfig.OpenMode openMode, final int shards,
+            final Sort indexSort) {
+
+        final IndexWriterConfig iwc = new IndexWriterConfig(TrialAnalyzer.forIndexing());
+        iwc.setOpenMode(openMode);
+        iwc.setSimilarity(SIMILARITY);
+        // Only an explicit commit after the pipeline drains may replace the previous index.
+        iwc.setCommitOnClose(false);
+        iwc.setInfoStream(new FlushCounter());
+        if (indexSort != null) {
+            iwc.setIndexSort(indexSort);
+        }
+        iwc.setCodec(new Lucene95Codec() {
+            @Override
+            public KnnVectorsFormat getKnnVectorsFormatForField(final String field) {
+                return new Lucene95HnswVectorsFormat(HNSW_M, HNSW_BEAM_WIDTH);
+            }
+        });
+
+        final TimedMergeScheduler scheduler = new TimedMergeScheduler();
+        iwc.setMergeScheduler(scheduler);
+
+        if (BULK_LOAD) {
+            final TieredMergePolicy mergePolicy = new TieredMergePolicy();
+            mergePolicy.setSegmentsPerTier(MERGE_SEGMENTS_PER_TIER);
+            mergePolicy.setNoCFSRatio(0.0);
+
+            final int mergeThreads = Math.max(1, MERGE_THREADS / shards);
+
+            iwc.setRAMBufferSizeMB(RAM_BUFFER_MB / shards);
+            iwc.setMaxBufferedDocs(MAX_BUFFERED_DOCS);
+            iwc.setMergePolicy(mergePolicy);
+            iwc.setUseCompoundFile(false);
+            scheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+        }
+
+        return iwc;
+    }
+
+    /**
+     * Log the summary of the run.
+     *
+     * @param logger
+     *            logger to write to.
+     * @param indexMillis
+     *            time spent adding documents.
+     * @param forceMergeMillis
+     *            time spent in the final force merge.
+     */
+    public void report(final Logger logger, final long indexMillis, final long forceMergeMillis) {
+        logger.info("Profile '{}': indexing {} ms, {} flushes, {} merges taking {} ms, force merge {} ms",
+                BULK_LOAD ? "bulk" : "default", indexMillis, flushes.sum(), merges.sum(),
+                mergeNanos.sum() / 1_000_000, forceMergeMillis);
+    }
+
+    /**
+     * Merge scheduler that accounts for the time spent in every merge.
+     */
+    private class TimedMergeScheduler extends ConcurrentMergeScheduler {
+
+        @Override
+        protected void doMerge(final MergeSource mergeSource, final MergePolicy.OneMerge merge) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                super.doMerge(mergeSource, merge);
+            } finally {
+                final long nanos = System.nanoTime() - start;
+                mergeNanos.add(nanos);
+                merges.increment();
+                MERGE_TIME.record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Info stream that only listens to segment flushes, the writer offers no other way to observe them.
+     */
+    private class FlushCounter extends InfoStream {
+
+        private static final String COMPONENT = "DWPT";
+        private static final String FLUSH_TIME_MESSAGE = "flush time ";
+
+        @Override
+        public void message(final String component, final String message) {
+            if (message.startsWith("flush postings as segment")) {
+                flushes.increment();
+            } else if (message.startsWith(FLUSH_TIME_MESSAGE)) {
+                recordFlushTime(message);
+            }
+        }
+
+        /**
+         * Record the duration of a flush, logged by the writer as <code>flush time 12.345 ms</code>.
+         */
+        private void recordFlushTime(final String message) {
+            final int end = message.indexOf(' ', FLUSH_TIME_MESSAGE.length());
+            try {
+                final double millis = Double.parseDouble(
+                        message.substring(FLUSH_TIME_MESSAGE.length(), end < 0 ? message.length() : end));
+                FLUSH_TIME.record((long) (millis * 1_000_000));
+            } catch (final NumberFormatException e) {
+                // Another message starting the same way, not a flush duration.
+            }
+        }
+
+        @Override
+        public boolean isEnabled(final String component) {
+            return COMPONENT.equals(component);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
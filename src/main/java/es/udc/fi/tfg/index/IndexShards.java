@@ -0,0 +1,139 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.util.Parameters.INDEX_PATH;
+import static es.udc.fi.tfg.util.Parameters.N_SHARDS;
+import static es.udc.fi.tfg.util.Parameters.PRELOAD_EXTENSIONS;
+import static es.udc.fi.tfg.util.Parameters.SHARD_PATHS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Layout of the trial index. The index is either a single directory or a set of shards, each holding the trials whose
+ * <code>nct_id</code> hashes to it, written by its own writer and possibly on its own volume. Shards are searched
+ * together through a {@link MultiReader}, whose searcher computes term and collection statistics over every shard, so
+ * scores are those of the single index.
+ */
+public final class IndexShards {
+
+    private IndexShards() {
+    }
+
+    /**
+     * Directories of the index shards, from {@link es.udc.fi.tfg.util.Parameters#SHARD_PATHS} if set, otherwise
+     * {@link es.udc.fi.tfg.util.Parameters#N_SHARDS} folders under the index path.
+     *
+     * @return the shard directories, only the index path if the index is not sharded.
+     */
+    public static List<Path> paths() {
+
+        if (SHARD_PATHS.length > 0) {
+            return Arrays.stream(SHARD_PATHS).map(Path::of).toList();
+        }
+
+        if (N_SHARDS <= 1) {
+            return List.of(Path.of(INDEX_PATH));
+        }
+
+        return IntStream.range(0, N_SHARDS).mapToObj(i -> Path.of(INDEX_PATH, "shard" + i)).toList();
+    }
+
+    /**
+     * Shard that holds a trial. Stable across runs, so updates and deletes reach the shard the trial was added to.
+     *
+     * @param nctId
+     *            id of the trial.
+     * @param shards
+     *            number of shards.
+     * @return the shard index.
+     */
+    public static int shardOf(final String nctId, final int shards) {
+        return Math.floorMod(nctId.hashCode(), shards);
+    }
+
+    /**
+     * Open the directory of an index for searching. The files whose extension is listed in
+     * {@link es.udc.fi.tfg.util.Parameters#PRELOAD_EXTENSIONS} are memory mapped and loaded into physical memory as
+     * they are opened, so the first queries do not page them in one fault at a time.
+     *
+     * @param path
+     *            the index directory.
+     * @return the directory.
+     */
+    public static Directory openDirectory(final Path path) throws IOException {
+
+        if (PRELOAD_EXTENSIONS.length == 0) {
+            return FSDirectory.open(path);
+        }
+
+        final Set<String> extensions = Set.of(PRELOAD_EXTENSIONS);
+        final MMapDirectory directory = new MMapDirectory(path);
+        directory.setPreload((name, context) -> {
+            final String extension = IndexFileNames.getExtension(name);
+            return extension != null && extensions.contains(extension);
+        });
+        return directory;
+    }
+
+    /**
+     * Open the whole index for searching.
+     *
+     * @return a reader of the single index, or of every shard as one logical index.
+     */
+    public static IndexReader openReader() throws IOException {
+
+        final List<Path> paths = paths();
+
+        if (paths.size() == 1) {
+            return DirectoryReader.open(openDirectory(paths.get(0)));
+        }
+
+        final IndexReader[] shards = new IndexReader[paths.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(openDirectory(paths.get(i)));
+            }
+        } catch (final IOException e) {
+            IOUtils.closeWhileHandlingException(shards);
+            throw e;
+        }
+
+        return new MultiReader(shards, true);
+    }
+
+    /**
+     * Open the whole index for a long running searcher, refreshed as the index changes.
+     *
+     * @param factory
+     *            factory of the searchers.
+     * @return a {@link SearcherManager} of the single index, or a {@link ShardSearcherManager} of every shard.
+     */
+    public static ReferenceManager<IndexSearcher> openSearcherManager(final SearcherFactory factory)
+            throws IOException {
+
+        final List<Path> paths = paths();
+
+        if (paths.size() == 1) {
+            return new SearcherManager(openDirectory(paths.get(0)), factory);
+        }
+
+        return new ShardSearcherManager(paths, factory);
+    }
+}
@@ -0,0 +1,45 @@
+package es.udc.fi.tfg.index;
+
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedSetSortField;
+
+/**
+ * Order of the documents inside every segment. A sorted index assigns docIDs by field values instead of by the order
+ * in which the indexer threads happened to add the trials, so a rebuild of the same corpus lays out the same index.
+ * Every order ends with <code>nct_id</code>, which is unique, so no two trials are left in arbitrary order.
+ */
+public enum IndexSortOrder {
+
+    /** Insertion order, which depends on thread scheduling. */
+    NONE,
+    /**
+     * By gender code and age bounds: trials a demographic filter matches are packed into few contiguous docID ranges,
+     * and runs of equal doc values compress better.
+     */
+    DEMOGRAPHIC(new SortField("gender_code", SortField.Type.INT), new SortField("min_age_months", SortField.Type.INT),
+            new SortField("max_age_months", SortField.Type.INT)),
+    /** By trial id alone. */
+    NCT_ID;
+
+    private final SortField[] fields;
+
+    IndexSortOrder(final SortField... fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * The index sort of this order.
+     *
+     * @return the sort, null for insertion order.
+     */
+    public Sort sort() {
+        if (this == NONE) {
+            return null;
+        }
+        final SortField[] sortFields = new SortField[fields.length + 1];
+        System.arraycopy(fields, 0, sortFields, 0, fields.length);
+        sortFields[fields.length] = new SortedSetSortField("nct_id", false);
+        return new Sort(sortFields);
+    }
+}
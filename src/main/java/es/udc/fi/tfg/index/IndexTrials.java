@@ -1,67 +1,157 @@
 package es.udc.fi.tfg.index;
 
+import static es.udc.fi.tfg.util.Parameters.BULK_LOAD;
 import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
+import static es.udc.fi.tfg.util.Parameters.FORCE_MERGE_SEGMENTS;
 import static es.udc.fi.tfg.util.Parameters.INDEX_PATH;
-import static es.udc.fi.tfg.util.Parameters.N_THREADS;
-import static es.udc.fi.tfg.util.Parameters.SIMILARITY;
+import static es.udc.fi.tfg.util.Parameters.INDEX_SORT;
+import static es.udc.fi.tfg.util.Parameters.METRICS_PATH;
+import static es.udc.fi.tfg.util.Parameters.UPDATE_INDEX;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.udc.fi.tfg.util.Metrics;
+
 public class IndexTrials {
 
     private static final Logger logger = LoggerFactory.getLogger(IndexTrials.class);
 
     public static void main(final String[] args) {
         final long start = System.currentTimeMillis();
+        Metrics.registerMBean();
 
-        final IndexWriterConfig iwc = new IndexWriterConfig();
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        iwc.setSimilarity(SIMILARITY);
-
-        logger.info("Indexing to directory '{}'", INDEX_PATH);
+        final IndexProfile profile = new IndexProfile();
+        final IndexWriterConfig.OpenMode openMode = UPDATE_INDEX ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND
+                : IndexWriterConfig.OpenMode.CREATE;
 
-        try (final IndexWriter writer = new IndexWriter(FSDirectory.open(Paths.get(INDEX_PATH)), iwc)) {
+        // The manifest describes the whole corpus, it lives in the index path even when the shards are elsewhere.
+        final Path indexDir = Paths.get(INDEX_PATH);
+        final List<Path> shardDirs = IndexShards.paths();
 
-            final File dir = new File(Paths.get(DOCS_PATH.concat("/trials")).toUri());
-            final File[] files = dir.listFiles();
+        logger.info("{} directory '{}' with {} shards", UPDATE_INDEX ? "Updating index in" : "Indexing to",
+                INDEX_PATH, shardDirs.size());
 
-            if (files != null) {
-                final ThreadPoolExecutor exec = (ThreadPoolExecutor) Executors.newFixedThreadPool(N_THREADS);
+        final IndexWriter[] writers = new IndexWriter[shardDirs.size()];
 
-                for (final File file : files) {
-                    final Runnable worker = new IndexerThread(file, writer);
-                    exec.execute(worker);
+        try {
+            Files.createDirectories(indexDir);
+            for (int i = 0; i < writers.length; i++) {
+                final Directory dir = FSDirectory.open(shardDirs.get(i));
+                final Sort indexSort = IndexProfile.indexSort(dir, openMode);
+                if (!Objects.equals(indexSort, INDEX_SORT.sort())) {
+                    logger.warn("Shard '{}' is sorted by {}, the update keeps it until a full rebuild sorts it by {}",
+                            shardDirs.get(i), Objects.toString(indexSort, "none"), INDEX_SORT);
                 }
+                writers[i] = new IndexWriter(dir, profile.createConfig(openMode, writers.length, indexSort));
+            }
 
-                exec.shutdown();
+            final TrialManifest previous = UPDATE_INDEX ? TrialManifest.load(indexDir) : new TrialManifest();
+            final TrialPipeline pipeline = new TrialPipeline(writers, previous, UPDATE_INDEX);
 
-                try {
-                    if (!exec.awaitTermination(5, TimeUnit.MINUTES)) {
-                        logger.error("Indexing timeout");
-                    }
-                } catch (final InterruptedException e) {
-                    logger.error(
-                            "Thread {} was interrupted while waiting for executor to terminate. Executor state: {}. Error: {}",
-                            Thread.currentThread().getName(), exec.isTerminated() ? "terminated" : "not terminated",
-                            e.getMessage());
-                }
+            pipeline.run(Paths.get(DOCS_PATH, "trials"));
+            final long indexMillis = System.currentTimeMillis() - start;
 
+            // A bulk-loaded rebuild is merged down once here instead of carrying many segments into every search. The
+            // default profile keeps Lucene's merges only, so both profiles can be compared.
+            final long forceMergeStart = System.currentTimeMillis();
+            if (BULK_LOAD && !UPDATE_INDEX && FORCE_MERGE_SEGMENTS > 0) {
+                forceMerge(writers);
+            }
+            final long forceMergeMillis = System.currentTimeMillis() - forceMergeStart;
+
+            // Shards are committed one after the other, a failure in between leaves them at different versions.
+            for (final IndexWriter writer : writers) {
                 writer.commit();
-                logger.info("Finished indexing in {} ms", System.currentTimeMillis() - start);
             }
+            pipeline.getManifest().save(indexDir);
+
+            profile.report(logger, indexMillis, forceMergeMillis);
+            logger.info("Index size {} MB, sorted by {}", String.format("%.2f", sizeOf(writers) / 1048576.0),
+                    Objects.toString(writers[0].getConfig().getIndexSort(), "none"));
+            Metrics.export(Path.of(METRICS_PATH, "index.json"));
+            logger.info("Finished indexing in {} ms", System.currentTimeMillis() - start);
+
         } catch (final IOException e) {
             logger.error("Indexing error - '{}'", e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Indexing interrupted, the index was not committed");
+        } finally {
+            IOUtils.closeWhileHandlingException(writers);
+        }
+    }
+
+    /**
+     * Size of the committed files of every shard.
+     *
+     * @param writers
+     *            writer of every shard.
+     * @return the size in bytes.
+     */
+    private static long sizeOf(final IndexWriter[] writers) throws IOException {
+        long bytes = 0;
+        for (final IndexWriter writer : writers) {
+            final Directory directory = writer.getDirectory();
+            for (final String file : directory.listAll()) {
+                bytes += directory.fileLength(file);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Force merge every shard, in parallel.
+     *
+     * @param writers
+     *            writer of every shard.
+     */
+    private static void forceMerge(final IndexWriter[] writers) throws IOException, InterruptedException {
+
+        if (writers.length == 1) {
+            writers[0].forceMerge(FORCE_MERGE_SEGMENTS);
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(writers.length);
+        try {
+            final List<Future<Void>> merges = new ArrayList<>();
+            for (final IndexWriter writer : writers) {
+                merges.add(executor.submit(() -> {
+                    writer.forceMerge(FORCE_MERGE_SEGMENTS);
+                    return null;
+                }));
+            }
+            for (final Future<Void> merge : merges) {
+                try {
+                    merge.get();
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof IOException cause) {
+                        throw cause;
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
         }
     }
 }
@@ -1,164 +1,237 @@
 package es.udc.fi.tfg.index;
 
-import static es.udc.fi.tfg.util.Utility.normalizeAge;
+import static es.udc.fi.tfg.index.TrialPipeline.END_OF_TRIALS;
+import static es.udc.fi.tfg.util.Parameters.INDEX_BATCH_SIZE;
+import static es.udc.fi.tfg.util.Parameters.INDEX_CRITERIA_SECTIONS;
+import static es.udc.fi.tfg.util.Parameters.INDEX_KEYWORDS;
+import static es.udc.fi.tfg.util.Parameters.INDEX_TERM_VECTORS;
+import static es.udc.fi.tfg.util.Parameters.VECTOR_SIMILARITY;
+import static es.udc.fi.tfg.util.Utility.UNKNOWN_AGE;
+import static es.udc.fi.tfg.util.Utility.ageInMonths;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleRange;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.document.KeywordField;
-import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.udc.fi.tfg.data.Gender;
 import es.udc.fi.tfg.data.Trial;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+import es.udc.fi.tfg.util.VectorFile;
 
 public class IndexerThread implements Runnable {
 
-    private final File file;
-    private final IndexWriter writer;
+    private static final Histogram BUILD_TIME = Metrics.histogram("index.build");
+    // One sample per writer call, a whole batch when bulk loading.
+    private static final Histogram ADD_TIME = Metrics.histogram("index.add");
 
-    private final Logger logger = LoggerFactory.getLogger(IndexerThread.class);
+    // Text with per-document term frequencies, read by the relevance feedback stage.
+    private static final FieldType TEXT_WITH_VECTORS = new FieldType(TextField.TYPE_NOT_STORED);
 
-    public IndexerThread(final File file, final IndexWriter writer) {
-        this.file = file;
-        this.writer = writer;
+    static {
+        TEXT_WITH_VECTORS.setStoreTermVectors(true);
+        TEXT_WITH_VECTORS.freeze();
     }
 
-    @Override
-    public void run() {
+    private final BlockingQueue<ParsedTrial> trials;
+    private final IndexWriter[] writers;
+    private final VectorFile vectors;
+    private final TrialManifest manifest;
+    private final boolean update;
+    private final StageStats stats;
+    private final List<List<Document>> batches = new ArrayList<>();
+    // Files of the documents of every batch, recorded in the manifest once the batch is added.
+    private final List<List<TrialFile>> batchFiles = new ArrayList<>();
 
-        final long start = System.currentTimeMillis();
+    private final Logger logger = LoggerFactory.getLogger(IndexerThread.class);
 
-        logger.info("Processing folder '{}'", file.getName());
+    /**
+     * @param trials
+     *            queue of parsed trials.
+     * @param writers
+     *            writer of every shard of the index, a trial goes to the shard its <code>nct_id</code> hashes to.
+     * @param vectors
+     *            precomputed embeddings by <code>nct_id</code>, read as trials arrive. Trials without one are only
+     *            indexed as text.
+     * @param manifest
+     *            manifest of the files held by the index, where every indexed trial's file is recorded.
+     * @param update
+     *            replace the trials with the same <code>nct_id</code> instead of adding them.
+     * @param stats
+     *            statistics of the index stage.
+     */
+    public IndexerThread(final BlockingQueue<ParsedTrial> trials, final IndexWriter[] writers,
+            final VectorFile vectors, final TrialManifest manifest, final boolean update,
+            final StageStats stats) {
+        this.trials = trials;
+        this.writers = writers;
+        this.vectors = vectors;
+        this.manifest = manifest;
+        this.update = update;
+        this.stats = stats;
+        for (int i = 0; i < writers.length; i++) {
+            batches.add(new ArrayList<>(INDEX_BATCH_SIZE));
+            batchFiles.add(new ArrayList<>(INDEX_BATCH_SIZE));
+        }
+    }
 
-        final File[] trials = file.listFiles();
+    @Override
+    public void run() {
 
-        if (trials != null) {
-            for (final File trialXml : trials) {
-                logger.info("Processing file '{}'", trialXml.getName());
-                final Trial trial = parseXml(trialXml);
-                indexTrial(trial, writer);
+        try {
+            ParsedTrial parsed;
+            while ((parsed = trials.take()) != END_OF_TRIALS) {
+                indexTrial(parsed.file(), parsed.trial());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (int shard = 0; shard < writers.length; shard++) {
+                flushBatch(shard);
             }
         }
-
-        logger.info("Folder '{}' processed in {} ms", file.getName(), System.currentTimeMillis() - start);
-
     }
 
-    private Trial parseXml(final File file) {
-
-        final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private void indexTrial(final TrialFile file, final Trial trial) {
 
         try {
-            final XMLStreamReader reader = factory.createXMLStreamReader(new FileInputStream(file));
-
-            final List<String> keywords = new ArrayList<>();
-
-            boolean isCriteria = false;
-            boolean isSummary = false;
-            boolean isDescription = false;
-            String nctId = null;
-            String gender = null;
-            String minAge = null;
-            String maxAge = null;
-            String criteria = null;
-            String summary = null;
-            String description = null;
-
-            while (reader.hasNext()) {
-                final int event = reader.next();
-
-                if (event == XMLStreamConstants.START_ELEMENT) {
-                    final String elementName = reader.getLocalName();
-
-                    switch (elementName) {
-                    case "nct_id" -> nctId = reader.getElementText().toLowerCase();
-                    case "gender" -> gender = reader.getElementText().toLowerCase();
-                    case "minimum_age" -> minAge = reader.getElementText().toLowerCase();
-                    case "maximum_age" -> maxAge = reader.getElementText().toLowerCase();
-                    case "keyword", "mesh_term" -> keywords.add(reader.getElementText().toLowerCase());
-                    case "criteria" -> isCriteria = true;
-                    case "brief_summary" -> isSummary = true;
-                    case "detailed_description" -> isDescription = true;
-                    case "textblock" -> {
-                        if (isCriteria)
-                            criteria = reader.getElementText().toLowerCase();
-                        if (isSummary)
-                            summary = reader.getElementText().toLowerCase();
-                        if (isDescription)
-                            description = reader.getElementText().toLowerCase();
-                    }
-                    }
-                } else if (event == XMLStreamConstants.END_ELEMENT) {
-                    if (reader.getLocalName().equals("criteria"))
-                        isCriteria = false;
-                    if (reader.getLocalName().equals("brief_summary"))
-                        isSummary = false;
-                    if (reader.getLocalName().equals("detailed_description"))
-                        isDescription = false;
+            final long start = System.nanoTime();
+            final Document doc = createDocument(trial, vectors.get(trial.nctId()));
+            final long built = BUILD_TIME.recordSince(start);
+
+            final int shard = IndexShards.shardOf(trial.nctId(), writers.length);
+            if (update) {
+                writers[shard].updateDocument(new Term("nct_id", trial.nctId()), doc);
+                ADD_TIME.recordSince(built);
+                manifest.put(file, trial.nctId());
+                stats.processed();
+            } else {
+                final List<Document> batch = batches.get(shard);
+                batch.add(doc);
+                batchFiles.get(shard).add(file);
+                if (batch.size() >= INDEX_BATCH_SIZE) {
+                    flushBatch(shard);
                 }
             }
-
-            return new Trial(nctId, criteria, summary, description, gender, minAge, maxAge, keywords);
-
-        } catch (final XMLStreamException e) {
-            logger.error("Error reading XML file - {}", e.getMessage());
-        } catch (final FileNotFoundException e) {
-            logger.error("File not found - {}", e.getMessage());
+        } catch (final IOException | RuntimeException e) {
+            logger.error("Error indexing trial '{}' - {}", trial.nctId(), e.getMessage());
+            stats.failed();
         }
-
-        return null;
     }
 
-    private void indexTrial(final Trial trial, final IndexWriter writer) {
-
-        if (trial != null) {
-            final Document doc = createDocument(trial);
+    /**
+     * Hand the pending batch of a shard to its writer in a single call. A failed batch is retried document by
+     * document, so that only the offending trial is lost. A lost trial is left out of the manifest.
+     *
+     * @param shard
+     *            the shard.
+     */
+    private void flushBatch(final int shard) {
+
+        final IndexWriter writer = writers[shard];
+        final List<Document> batch = batches.get(shard);
+        final List<TrialFile> files = batchFiles.get(shard);
+        if (batch.isEmpty()) {
+            return;
+        }
 
-            try {
-                writer.addDocument(doc);
-            } catch (final IOException e) {
-                logger.error("Error indexing trial - {}", e.getMessage());
+        try {
+            final long start = System.nanoTime();
+            writer.addDocuments(batch);
+            ADD_TIME.recordSince(start);
+            for (int i = 0; i < batch.size(); i++) {
+                manifest.put(files.get(i), batch.get(i).get("nct_id"));
             }
-        } else {
-            logger.error("Error indexing trial - trial is null");
+            stats.processed(batch.size());
+        } catch (final IOException | RuntimeException e) {
+            logger.warn("Error indexing batch of {} trials, retrying one by one - {}", batch.size(), e.getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                final Document doc = batch.get(i);
+                try {
+                    writer.addDocument(doc);
+                    manifest.put(files.get(i), doc.get("nct_id"));
+                    stats.processed();
+                } catch (final IOException | RuntimeException ex) {
+                    logger.error("Error indexing trial '{}' - {}", doc.get("nct_id"), ex.getMessage());
+                    stats.failed();
+                }
+            }
+        } finally {
+            batch.clear();
+            files.clear();
         }
     }
 
-    private Document createDocument(final Trial trial) {
+    static Document createDocument(final Trial trial) {
+        return createDocument(trial, null);
+    }
+
+    /**
+     * Build the document of a trial.
+     *
+     * @param trial
+     *            the trial.
+     * @param vector
+     *            its precomputed embedding, null if it has none.
+     * @return the document.
+     */
+    static Document createDocument(final Trial trial, final float[] vector) {
 
         final Document doc = new Document();
 
-        final String gender = trial.gender();
-        final String minAge = trial.minAge();
-        final String maxAge = trial.maxAge();
-        final double minAgeNorm = normalizeAge(minAge);
-        final double maxAgeNorm = normalizeAge(maxAge);
-        final double[] minAgeRange = new double[] { minAgeNorm == -1 ? Double.NEGATIVE_INFINITY : minAgeNorm };
-        final double[] maxAgeRange = new double[] { maxAgeNorm == -1 ? Double.POSITIVE_INFINITY : maxAgeNorm };
+        // Eligibility is indexed in structured form, parsed once here instead of at every search.
+        final int gender = Gender.fromTrial(trial.gender()).getCode();
+        final int minAge = ageInMonths(trial.minAge());
+        final int maxAge = ageInMonths(trial.maxAge());
+        final int minAgeMonths = minAge == UNKNOWN_AGE ? Integer.MIN_VALUE : minAge;
+        final int maxAgeMonths = maxAge == UNKNOWN_AGE ? Integer.MAX_VALUE : maxAge;
 
         doc.add(new KeywordField("nct_id", trial.nctId(), Field.Store.YES));
-        doc.add(new StringField("gender", gender == null ? "all" : gender, Field.Store.YES));
-        doc.add(new StringField("min_age", minAge == null ? "n/a" : minAge, Field.Store.YES));
-        doc.add(new StringField("max_age", maxAge == null ? "n/a" : maxAge, Field.Store.YES));
-        doc.add(new DoubleRange("age_range", minAgeRange, maxAgeRange));
-        doc.add(new TextField("contents", trial.toString(), Field.Store.NO));
+        doc.add(new IntPoint("gender_code", gender));
+        doc.add(new NumericDocValuesField("gender_code", gender));
+        doc.add(new IntPoint("min_age_months", minAgeMonths));
+        doc.add(new NumericDocValuesField("min_age_months", minAgeMonths));
+        doc.add(new IntPoint("max_age_months", maxAgeMonths));
+        doc.add(new NumericDocValuesField("max_age_months", maxAgeMonths));
+
+        // Every section is its own field, indexed straight from the parsed strings without concatenating them.
+        addText(doc, TrialFields.CRITERIA, trial.criteria());
+        if (INDEX_CRITERIA_SECTIONS) {
+            addText(doc, TrialFields.INCLUSION, trial.inclusion());
+            addText(doc, TrialFields.EXCLUSION, trial.exclusion());
+        }
+        addText(doc, TrialFields.SUMMARY, trial.summary());
+        addText(doc, TrialFields.DESCRIPTION, trial.description());
+        if (INDEX_KEYWORDS && trial.keywords() != null) {
+            for (final String keyword : trial.keywords()) {
+                addText(doc, TrialFields.KEYWORDS, keyword);
+            }
+        }
+        if (vector != null) {
+            doc.add(new KnnFloatVectorField(TrialFields.VECTOR, vector, VECTOR_SIMILARITY));
+        }
 
         return doc;
     }
 
+    private static void addText(final Document doc, final String field, final String text) {
+        if (text != null) {
+            doc.add(new Field(field, text, INDEX_TERM_VECTORS ? TEXT_WITH_VECTORS : TextField.TYPE_NOT_STORED));
+        }
+    }
+
 }
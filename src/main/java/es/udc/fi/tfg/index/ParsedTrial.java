@@ -0,0 +1,16 @@
+package es.udc.fi.tfg.index;
+
+import es.udc.fi.tfg.data.Trial;
+
+/**
+ * A trial waiting to be indexed, along with the file it was parsed from. The file is only recorded in the
+ * {@link TrialManifest} once the writer has accepted its trial, so a trial that failed to index is retried by the
+ * next update.
+ *
+ * @param file
+ *            the trial file.
+ * @param trial
+ *            the parsed trial.
+ */
+public record ParsedTrial(TrialFile file, Trial trial) {
+}
@@ -0,0 +1,87 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.index.TrialPipeline.END_OF_FILES;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.data.Trial;
+
+public class ParserThread implements Runnable {
+
+    private final BlockingQueue<TrialFile> files;
+    private final BlockingQueue<ParsedTrial> trials;
+    private final StageStats stats;
+    private final TrialParser parser = new TrialParser();
+
+    private final Logger logger = LoggerFactory.getLogger(ParserThread.class);
+
+    public ParserThread(final BlockingQueue<TrialFile> files, final BlockingQueue<ParsedTrial> trials,
+            final StageStats stats) {
+        this.files = files;
+        this.trials = trials;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+
+        final long startAllocated = allocatedBytes();
+
+        try {
+            TrialFile trialXml;
+            while ((trialXml = files.take()) != END_OF_FILES) {
+                logger.debug("Processing file '{}'", trialXml.key());
+
+                final Trial trial = parseXml(trialXml);
+
+                if (trial != null) {
+                    trials.put(new ParsedTrial(trialXml, trial));
+                    stats.processed();
+                } else {
+                    stats.failed();
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stats.allocated(allocatedBytes() - startAllocated);
+        }
+    }
+
+    /**
+     * Heap allocated so far by the current thread.
+     *
+     * @return the allocated bytes, or -1 if the JVM does not support allocation measurement.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean sunThreads) {
+            return sunThreads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private Trial parseXml(final TrialFile file) {
+
+        try {
+            return file.isArchived() ? parser.parse(file.archive(), file.entry()) : parser.parse(file.path());
+        } catch (final XMLStreamException e) {
+            logger.error("Error reading XML file '{}' - {}", file.key(), e.getMessage());
+        } catch (final IOException e) {
+            logger.error("Error reading file '{}' - {}", file.key(), e.getMessage());
+        } catch (final RuntimeException e) {
+            // A malformed trial fails on its own instead of stopping the stage.
+            logger.error("Error parsing file '{}' - {}", file.key(), e.toString());
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+package es.udc.fi.tfg.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * {@link org.apache.lucene.search.SearcherManager} counterpart for a sharded index. Every searcher reads a
+ * {@link MultiReader} over one {@link DirectoryReader} per shard; a refresh reopens the shards that changed and shares
+ * the others with the previous searcher. The shard readers are owned by the multi readers holding them, so a shard
+ * reader is closed once no searcher uses it anymore.
+ */
+public class ShardSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final SearcherFactory factory;
+    // Shards of the current searcher, only read and replaced under the refresh lock.
+    private DirectoryReader[] shards;
+
+    /**
+     * Open every shard.
+     *
+     * @param paths
+     *            directory of every shard.
+     * @param factory
+     *            factory of the searchers, null for plain ones.
+     */
+    public ShardSearcherManager(final List<Path> paths, final SearcherFactory factory) throws IOException {
+
+        this.factory = factory == null ? new SearcherFactory() : factory;
+
+        final DirectoryReader[] opened = new DirectoryReader[paths.size()];
+        try {
+            for (int i = 0; i < opened.length; i++) {
+                opened[i] = DirectoryReader.open(IndexShards.openDirectory(paths.get(i)));
+            }
+            current = newSearcher(opened, null);
+            shards = opened;
+        } finally {
+            // The multi reader took its own reference, or the shards are closed if it could not be created.
+            decRefAll(opened);
+        }
+    }
+
+    @Override
+    protected void decRef(final IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(final IndexSearcher referenceToRefresh) throws IOException {
+
+        final DirectoryReader[] next = shards.clone();
+        final List<DirectoryReader> opened = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < next.length; i++) {
+                final DirectoryReader reopened = DirectoryReader.openIfChanged(shards[i]);
+                if (reopened != null) {
+                    opened.add(reopened);
+                    next[i] = reopened;
+                }
+            }
+
+            if (opened.isEmpty()) {
+                return null;
+            }
+
+            final IndexSearcher searcher = newSearcher(next, referenceToRefresh.getIndexReader());
+            shards = next;
+            return searcher;
+
+        } finally {
+            decRefAll(opened.toArray(DirectoryReader[]::new));
+        }
+    }
+
+    @Override
+    protected boolean tryIncRef(final IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(final IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    private IndexSearcher newSearcher(final DirectoryReader[] readers, final IndexReader previous)
+            throws IOException {
+
+        // Not closing the sub readers makes the multi reader take and release its own reference on each of them.
+        final MultiReader reader = new MultiReader(readers, false);
+        boolean success = false;
+        try {
+            final IndexSearcher searcher = factory.newSearcher(reader, previous);
+            success = true;
+            return searcher;
+        } finally {
+            if (!success) {
+                reader.decRef();
+            }
+        }
+    }
+
+    private static void decRefAll(final DirectoryReader[] readers) throws IOException {
+        final List<Closeable> releases = new ArrayList<>();
+        for (final DirectoryReader reader : readers) {
+            if (reader != null) {
+                releases.add(reader::decRef);
+            }
+        }
+        IOUtils.close(releases);
+    }
+}
@@ -0,0 +1,85 @@
+package es.udc.fi.tfg.index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+
+import es.udc.fi.tfg.util.Metrics;
+
+/**
+ * Throughput counters of a single stage of the indexing pipeline, also published in {@link Metrics} as
+ * <code>pipeline.&lt;stage&gt;.processed</code> and <code>pipeline.&lt;stage&gt;.failed</code>.
+ */
+public class StageStats {
+
+    private final String name;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder processedMetric;
+    private final LongAdder failedMetric;
+    private final LongAdder allocatedBytes = new LongAdder();
+    private long elapsedNanos = 0;
+
+    public StageStats(final String name) {
+        this.name = name;
+        this.processedMetric = Metrics.counter("pipeline." + name + ".processed");
+        this.failedMetric = Metrics.counter("pipeline." + name + ".failed");
+    }
+
+    public void processed() {
+        processed.increment();
+        processedMetric.increment();
+    }
+
+    public void processed(final long count) {
+        processed.add(count);
+        processedMetric.add(count);
+    }
+
+    public void failed() {
+        failed.increment();
+        failedMetric.increment();
+    }
+
+    /**
+     * Account for the heap allocated by one of the workers of the stage.
+     *
+     * @param bytes
+     *            bytes allocated by the worker thread, or a negative value if the JVM does not measure it.
+     */
+    public void allocated(final long bytes) {
+        if (bytes > 0) {
+            allocatedBytes.add(bytes);
+        }
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Mark the stage as finished.
+     *
+     * @param pipelineStart
+     *            value of {@link System#nanoTime()} when the pipeline was started.
+     */
+    public void finish(final long pipelineStart) {
+        elapsedNanos = System.nanoTime() - pipelineStart;
+    }
+
+    public void report(final Logger logger) {
+        final long count = getProcessed();
+        final double seconds = elapsedNanos / 1e9;
+        logger.info("Stage '{}' processed {} items ({} failed) in {} ms - {} docs/s", name, count, getFailed(),
+                elapsedNanos / 1_000_000, String.format("%.1f", seconds > 0 ? count / seconds : 0.0));
+
+        final long allocated = allocatedBytes.sum();
+        if (allocated > 0 && count > 0) {
+            logger.info("Stage '{}' allocated {} MB per 10k items", name, allocated * 10_000 / count / (1024 * 1024));
+        }
+    }
+}
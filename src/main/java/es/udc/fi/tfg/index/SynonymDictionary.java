@@ -0,0 +1,235 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
+import static es.udc.fi.tfg.util.Parameters.SYNONYMS_FILENAME;
+import static es.udc.fi.tfg.util.Parameters.SYNONYM_MAP_FILENAME;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * Medical synonyms and abbreviations expanded by {@link TrialAnalyzer}. The dictionary is written in Solr format, one
+ * group of equivalent terms per line (<code>t2dm, type 2 diabetes mellitus</code>) or explicit mappings
+ * (<code>mi =&gt; myocardial infarction</code>). Parsing it means analyzing every entry and building an FST, so the
+ * result is saved next to the dictionary and later JVMs read the FST back instead, as long as the dictionary was not
+ * modified since.
+ */
+public final class SynonymDictionary {
+
+    private static final Logger logger = LoggerFactory.getLogger(SynonymDictionary.class);
+
+    private static final Histogram LOAD_TIME = Metrics.histogram("analysis.synonyms_load");
+
+    private static final String CODEC = "TrialSynonyms";
+    private static final int VERSION = 0;
+
+    // Read on first use, and shared by every analyzer of the process.
+    private static SynonymMap shared;
+    private static boolean loaded;
+
+    private SynonymDictionary() {
+    }
+
+    /**
+     * The synonyms configured in {@link es.udc.fi.tfg.util.Parameters#SYNONYMS_FILENAME}, loaded once per process.
+     *
+     * @return the synonym map, null if there is no dictionary or it could not be read.
+     */
+    public static synchronized SynonymMap get() {
+        if (!loaded) {
+            try {
+                shared = load(Path.of(DOCS_PATH, SYNONYMS_FILENAME), Path.of(DOCS_PATH, SYNONYM_MAP_FILENAME));
+            } catch (final IOException | ParseException e) {
+                logger.error("Error loading synonyms, text is analyzed without them - {}", e.getMessage());
+            }
+            loaded = true;
+        }
+        return shared;
+    }
+
+    /**
+     * Load the synonyms of a dictionary, from its compiled FST if it is up to date and compiling it otherwise.
+     *
+     * @param dictionary
+     *            the dictionary, in Solr format.
+     * @param compiled
+     *            the compiled synonym map, rewritten if missing, stale or unreadable.
+     * @return the synonym map, null if the dictionary does not exist.
+     * @throws IOException
+     *             if the dictionary could not be read.
+     * @throws ParseException
+     *             if the dictionary is malformed.
+     */
+    public static SynonymMap load(final Path dictionary, final Path compiled) throws IOException, ParseException {
+
+        if (!Files.exists(dictionary)) {
+            logger.info("No synonyms at '{}'", dictionary);
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        final long stamp = Files.getLastModifiedTime(dictionary).toMillis();
+
+        SynonymMap map = null;
+        if (Files.exists(compiled)) {
+            try {
+                map = read(compiled, stamp);
+            } catch (final IOException e) {
+                // A corrupt or truncated map is just a stale one, the dictionary is still there.
+                logger.warn("Error reading synonyms at '{}', recompiling them - {}", compiled, e.getMessage());
+            }
+        }
+
+        final boolean compile = map == null;
+        if (compile) {
+            try (final Reader reader = Files.newBufferedReader(dictionary, StandardCharsets.UTF_8)) {
+                map = parse(reader);
+            }
+            // The compiled map only saves time, the next process compiles it again if it could not be saved.
+            try {
+                write(map, stamp, compiled);
+            } catch (final IOException e) {
+                logger.warn("Error saving synonyms to '{}' - {}", compiled, e.getMessage());
+            }
+        }
+
+        final long nanos = LOAD_TIME.recordSince(start) - start;
+        logger.info("{} {} synonym words from '{}' in {} ms, FST of {} bytes", compile ? "Compiled" : "Read",
+                map.words.size(), compile ? dictionary : compiled, nanos / 1_000_000,
+                map.fst == null ? 0 : map.fst.ramBytesUsed());
+        return map;
+    }
+
+    /**
+     * Parse a dictionary. Entries are analyzed like the text they match, so that they are lowercased and split into
+     * the same tokens. Every term of a group is expanded to all the others.
+     *
+     * @param reader
+     *            the dictionary, in Solr format.
+     * @return the synonym map.
+     * @throws IOException
+     *             if the dictionary could not be read.
+     * @throws ParseException
+     *             if the dictionary is malformed.
+     */
+    public static SynonymMap parse(final Reader reader) throws IOException, ParseException {
+        try (final TrialAnalyzer analyzer = new TrialAnalyzer(null, false)) {
+            final SolrSynonymParser parser = new SolrSynonymParser(true, true, analyzer);
+            parser.parse(reader);
+            return parser.build();
+        }
+    }
+
+    /**
+     * Read a compiled synonym map.
+     *
+     * @param file
+     *            the compiled map.
+     * @param stamp
+     *            modification time of the dictionary it must have been compiled from.
+     * @return the synonym map, null if it was compiled from another version of the dictionary.
+     * @throws IOException
+     *             if the file could not be read or is corrupt.
+     */
+    public static SynonymMap read(final Path file, final long stamp) throws IOException {
+
+        try (final Directory dir = FSDirectory.open(file.toAbsolutePath().getParent());
+                final ChecksumIndexInput in = dir.openChecksumInput(file.getFileName().toString(),
+                        IOContext.READONCE)) {
+
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            if (in.readLong() != stamp) {
+                logger.info("Synonyms at '{}' are stale", file);
+                return null;
+            }
+
+            // Words are added back in the order of their ids, which the outputs of the FST refer to.
+            final BytesRefHash words = new BytesRefHash();
+            final int count = in.readVInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] bytes = new byte[in.readVInt()];
+                in.readBytes(bytes, 0, bytes.length);
+                if (words.add(new BytesRef(bytes)) != i) {
+                    throw new CorruptIndexException("duplicate synonym word", in);
+                }
+            }
+            final int maxHorizontalContext = in.readVInt();
+            final FST<BytesRef> fst = in.readByte() == 1 ? new FST<>(in, in, ByteSequenceOutputs.getSingleton())
+                    : null;
+
+            CodecUtil.checkFooter(in);
+            return new SynonymMap(fst, words, maxHorizontalContext);
+        }
+    }
+
+    /**
+     * Save a synonym map. It is written to a temporary file first and then renamed, so a reader never sees half of it.
+     *
+     * @param map
+     *            the synonym map.
+     * @param stamp
+     *            modification time of the dictionary it was compiled from.
+     * @param file
+     *            the compiled map.
+     * @throws IOException
+     *             if the file could not be written.
+     */
+    public static void write(final SynonymMap map, final long stamp, final Path file) throws IOException {
+
+        final String name = file.getFileName().toString();
+
+        try (final Directory dir = FSDirectory.open(file.toAbsolutePath().getParent())) {
+            final String temp;
+            try (final IndexOutput out = dir.createTempOutput(name, "tmp", IOContext.DEFAULT)) {
+                temp = out.getName();
+
+                CodecUtil.writeHeader(out, CODEC, VERSION);
+                out.writeLong(stamp);
+
+                final BytesRef scratch = new BytesRef();
+                out.writeVInt(map.words.size());
+                for (int i = 0; i < map.words.size(); i++) {
+                    map.words.get(i, scratch);
+                    out.writeVInt(scratch.length);
+                    out.writeBytes(scratch.bytes, scratch.offset, scratch.length);
+                }
+                out.writeVInt(map.maxHorizontalContext);
+                // An empty dictionary has no FST.
+                out.writeByte((byte) (map.fst == null ? 0 : 1));
+                if (map.fst != null) {
+                    map.fst.save(out, out);
+                }
+
+                CodecUtil.writeFooter(out);
+            }
+
+            if (Files.exists(file)) {
+                dir.deleteFile(name);
+            }
+            dir.rename(temp, name);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package es.udc.fi.tfg.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.FlattenGraphFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+/**
+ * Analyzer of the trial sections and the patient descriptions: the tokens of {@link StandardTokenizer}, lowercased,
+ * with the synonyms and abbreviations of {@link SynonymDictionary} expanded. Without synonyms it is the same chain as
+ * {@link org.apache.lucene.analysis.standard.StandardAnalyzer}. Multi-word synonyms form a token graph, which the
+ * query parser turns into alternative clauses; the index cannot store a graph, so at index time it is flattened.
+ * Thread safe, like every {@link Analyzer}.
+ */
+public class TrialAnalyzer extends Analyzer {
+
+    private final SynonymMap synonyms;
+    private final boolean indexing;
+
+    /**
+     * Create an analyzer.
+     *
+     * @param synonyms
+     *            the synonyms to expand, null for none.
+     * @param indexing
+     *            whether it analyzes documents to index, instead of queries.
+     */
+    public TrialAnalyzer(final SynonymMap synonyms, final boolean indexing) {
+        this.synonyms = synonyms;
+        this.indexing = indexing;
+    }
+
+    /**
+     * Analyzer of the documents added to the index, with the configured synonyms.
+     *
+     * @return a new analyzer.
+     */
+    public static TrialAnalyzer forIndexing() {
+        return new TrialAnalyzer(SynonymDictionary.get(), true);
+    }
+
+    /**
+     * Analyzer of the queries, with the configured synonyms.
+     *
+     * @return a new analyzer.
+     */
+    public static TrialAnalyzer forSearch() {
+        return new TrialAnalyzer(SynonymDictionary.get(), false);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(final String fieldName) {
+
+        final StandardTokenizer source = new StandardTokenizer();
+        TokenStream stream = new LowerCaseFilter(source);
+
+        if (synonyms != null && synonyms.fst != null) {
+            stream = new SynonymGraphFilter(stream, synonyms, true);
+            if (indexing) {
+                stream = new FlattenGraphFilter(stream);
+            }
+        }
+
+        return new TokenStreamComponents(source, stream);
+    }
+
+    @Override
+    protected TokenStream normalize(final String fieldName, final TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
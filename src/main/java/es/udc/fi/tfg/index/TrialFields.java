@@ -0,0 +1,20 @@
+package es.udc.fi.tfg.index;
+
+/**
+ * Text fields of the trial index, one per section of the trial record.
+ */
+public final class TrialFields {
+
+    public static final String CRITERIA = "criteria";
+    // Sections of the criteria, scored apart by the eligibility re-ranker.
+    public static final String INCLUSION = "inclusion";
+    public static final String EXCLUSION = "exclusion";
+    public static final String SUMMARY = "summary";
+    public static final String DESCRIPTION = "description";
+    public static final String KEYWORDS = "keywords";
+    // Precomputed embedding of the trial, searched through its HNSW graph.
+    public static final String VECTOR = "vector";
+
+    private TrialFields() {
+    }
+}
@@ -0,0 +1,33 @@
+package es.udc.fi.tfg.index;
+
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A trial file waiting to be parsed, either a file of its own or an entry of a corpus archive.
+ *
+ * @param path
+ *            location of the file, or of the archive holding it.
+ * @param key
+ *            path of the file relative to the corpus root, used as key of the {@link TrialManifest}. Archive entries
+ *            are keyed as <code>archive!/entry</code>.
+ * @param size
+ *            size of the file in bytes, uncompressed.
+ * @param lastModified
+ *            last modification time of the file in milliseconds.
+ * @param archive
+ *            open archive holding the file, null if the file is on its own.
+ * @param entry
+ *            entry of the file in the archive, null if the file is on its own.
+ */
+public record TrialFile(Path path, String key, long size, long lastModified, ZipFile archive, ZipEntry entry) {
+
+    public TrialFile(final Path path, final String key, final long size, final long lastModified) {
+        this(path, key, size, lastModified, null, null);
+    }
+
+    public boolean isArchived() {
+        return archive != null;
+    }
+}
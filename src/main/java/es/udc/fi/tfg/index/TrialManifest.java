@@ -0,0 +1,135 @@
+package es.udc.fi.tfg.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the trial files held by an index, stored next to it. For every file it keeps the size and modification
+ * time it had when it was indexed and the <code>nct_id</code> of the trial it contained, so an incremental run can
+ * tell new, changed and removed files apart without parsing them again.
+ */
+public class TrialManifest {
+
+    public static final String FILENAME = "trials.manifest";
+
+    public record Entry(long size, long lastModified, String nctId) {
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Load the manifest stored in the given index folder.
+     *
+     * @param indexDir
+     *            folder of the index.
+     * @return the stored manifest, or an empty one if the index has none.
+     * @throws IOException
+     *             if the manifest exists but could not be read.
+     */
+    public static TrialManifest load(final Path indexDir) throws IOException {
+
+        final TrialManifest manifest = new TrialManifest();
+        final Path file = indexDir.resolve(FILENAME);
+
+        if (Files.exists(file)) {
+            try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split("\t");
+                    if (fields.length == 4) {
+                        manifest.entries.put(fields[0],
+                                new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                    }
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Store the manifest in the given index folder, replacing the previous one atomically.
+     *
+     * @param indexDir
+     *            folder of the index.
+     * @throws IOException
+     *             if the manifest could not be written.
+     */
+    public void save(final Path indexDir) throws IOException {
+
+        final Path tmp = indexDir.resolve(FILENAME + ".tmp");
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(entry.getKey() + "\t" + value.size() + "\t" + value.lastModified() + "\t" + value.nctId());
+                writer.newLine();
+            }
+        }
+
+        Files.move(tmp, indexDir.resolve(FILENAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Check whether the given file is recorded with the same size and modification time.
+     *
+     * @param file
+     *            the trial file.
+     * @return the recorded entry if the file is unchanged, null otherwise.
+     */
+    public Entry unchanged(final TrialFile file) {
+        final Entry entry = entries.get(file.key());
+        return entry != null && entry.size() == file.size() && entry.lastModified() == file.lastModified() ? entry
+                : null;
+    }
+
+    public void put(final String key, final Entry entry) {
+        entries.put(key, entry);
+    }
+
+    public void put(final TrialFile file, final String nctId) {
+        entries.put(file.key(), new Entry(file.size(), file.lastModified(), nctId));
+    }
+
+    /**
+     * Find the trials of this manifest that are no longer held by any file of the given one.
+     *
+     * @param current
+     *            manifest of the files currently in the corpus.
+     * @param seenKeys
+     *            keys of every file currently in the corpus, including those that failed to parse. The trials of
+     *            those failed files are kept, since their new content is unknown.
+     * @return the <code>nct_id</code>s of the removed trials.
+     */
+    public Set<String> removedTrials(final TrialManifest current, final Set<String> seenKeys) {
+
+        final Set<String> currentIds = new HashSet<>();
+        for (final Entry entry : current.entries.values()) {
+            currentIds.add(entry.nctId());
+        }
+
+        final Set<String> removed = new HashSet<>();
+        entries.forEach((key, entry) -> {
+            final boolean failed = seenKeys.contains(key) && !current.entries.containsKey(key);
+            if (!failed && !currentIds.contains(entry.nctId())) {
+                removed.add(entry.nctId());
+            }
+        });
+
+        return removed;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,303 @@
+package es.udc.fi.tfg.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import es.udc.fi.tfg.data.Trial;
+import es.udc.fi.tfg.util.Metrics;
+import es.udc.fi.tfg.util.Metrics.Histogram;
+
+/**
+ * StAX parser for ClinicalTrials.gov records. An instance keeps its {@link XMLInputFactory} and read buffer between
+ * files, so it is meant to be owned by a single thread and reused for every trial that thread parses.
+ */
+public class TrialParser {
+
+    /** Files larger than this are memory mapped instead of copied into the read buffer. */
+    private static final long MMAP_THRESHOLD = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final String REUSE_INSTANCE = "reuse-instance";
+
+    private static final Pattern EXCLUSION_HEADING = Pattern.compile("exclusion\\s+criteria",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Elements whose subtree holds nothing that is indexed. */
+    private static final Set<String> SKIPPED_ELEMENTS = Set.of("sponsors", "overall_official", "overall_contact",
+            "overall_contact_backup", "location", "location_countries", "removed_countries", "responsible_party",
+            "reference", "results_reference", "clinical_results", "pending_results", "provided_document_section",
+            "patient_data", "arm_group", "intervention", "study_design_info", "primary_outcome", "secondary_outcome",
+            "other_outcome");
+
+    private static final Histogram READ_TIME = Metrics.histogram("index.read");
+    private static final Histogram PARSE_TIME = Metrics.histogram("index.parse");
+    private static final LongAdder BYTES_READ = Metrics.counter("index.bytes_read");
+
+    private final XMLInputFactory factory;
+    private final ByteBufferInputStream input = new ByteBufferInputStream();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    public TrialParser() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // The JDK implementation can recycle a closed reader, with its scanner buffers, for the next document.
+        if (factory.isPropertySupported(REUSE_INSTANCE)) {
+            factory.setProperty(REUSE_INSTANCE, true);
+        }
+    }
+
+    /**
+     * Parse the trial stored in the given file.
+     *
+     * @param file
+     *            XML file of the trial.
+     * @return the parsed trial.
+     * @throws IOException
+     *             if the file could not be read.
+     * @throws XMLStreamException
+     *             if the file is not well formed or the trial has no nct_id.
+     */
+    public Trial parse(final Path file) throws IOException, XMLStreamException {
+
+        final long start = System.nanoTime();
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            BYTES_READ.add(size);
+
+            if (size > MMAP_THRESHOLD) {
+                final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                READ_TIME.recordSince(start);
+                return parse(mapped);
+            }
+
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) << 1);
+            }
+
+            buffer.clear();
+            while (buffer.position() < size && channel.read(buffer) >= 0) {
+                // Keep reading until the whole file is in the buffer.
+            }
+            buffer.flip();
+            READ_TIME.recordSince(start);
+
+            return parse(buffer);
+        }
+    }
+
+    /**
+     * Parse the trial stored in an entry of a corpus archive. The entry is inflated into the read buffer, never to
+     * disk.
+     *
+     * @param archive
+     *            the open archive, which may be shared with other threads.
+     * @param entry
+     *            XML entry of the trial.
+     * @return the parsed trial.
+     * @throws IOException
+     *             if the entry could not be inflated.
+     * @throws XMLStreamException
+     *             if the entry is not well formed or the trial has no nct_id.
+     */
+    public Trial parse(final ZipFile archive, final ZipEntry entry) throws IOException, XMLStreamException {
+
+        final long start = System.nanoTime();
+
+        try (final InputStream in = archive.getInputStream(entry)) {
+            final long size = entry.getSize();
+            if (size >= buffer.capacity()) {
+                buffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) << 1);
+            }
+
+            buffer.clear();
+            int read;
+            while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+                buffer.position(buffer.position() + read);
+                // The recorded size may be missing, grow the buffer until the stream is exhausted.
+                if (!buffer.hasRemaining()) {
+                    final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() << 1);
+                    buffer.flip();
+                    buffer = larger.put(buffer);
+                }
+            }
+            buffer.flip();
+            BYTES_READ.add(buffer.limit());
+            READ_TIME.recordSince(start);
+
+            return parse(buffer);
+        }
+    }
+
+    /**
+     * Parse the trial whose XML is held between the position and the limit of the given buffer.
+     *
+     * @param bytes
+     *            XML of the trial.
+     * @return the parsed trial.
+     * @throws XMLStreamException
+     *             if the XML is not well formed or the trial has no nct_id.
+     */
+    public Trial parse(final ByteBuffer bytes) throws XMLStreamException {
+
+        final long start = System.nanoTime();
+        input.reset(bytes);
+        final XMLStreamReader reader = factory.createXMLStreamReader(input);
+
+        try {
+            final List<String> keywords = new ArrayList<>();
+
+            boolean isCriteria = false;
+            boolean isSummary = false;
+            boolean isDescription = false;
+            String nctId = null;
+            String gender = null;
+            String minAge = null;
+            String maxAge = null;
+            String criteria = null;
+            String summary = null;
+            String description = null;
+
+            while (reader.hasNext()) {
+                final int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String elementName = reader.getLocalName();
+
+                    if (SKIPPED_ELEMENTS.contains(elementName)) {
+                        skipElement(reader);
+                        continue;
+                    }
+
+                    // Free text is handed to the analyzer as is, it already lowercases the tokens.
+                    switch (elementName) {
+                    case "nct_id" -> nctId = reader.getElementText().toLowerCase();
+                    case "gender" -> gender = reader.getElementText().toLowerCase();
+                    case "minimum_age" -> minAge = reader.getElementText().toLowerCase();
+                    case "maximum_age" -> maxAge = reader.getElementText().toLowerCase();
+                    case "keyword", "mesh_term" -> keywords.add(reader.getElementText());
+                    case "criteria" -> isCriteria = true;
+                    case "brief_summary" -> isSummary = true;
+                    case "detailed_description" -> isDescription = true;
+                    case "textblock" -> {
+                        if (isCriteria)
+                            criteria = reader.getElementText();
+                        else if (isSummary)
+                            summary = reader.getElementText();
+                        else if (isDescription)
+                            description = reader.getElementText();
+                    }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                    case "criteria" -> isCriteria = false;
+                    case "brief_summary" -> isSummary = false;
+                    case "detailed_description" -> isDescription = false;
+                    }
+                }
+            }
+
+            // Trials are indexed, sharded and updated by nct_id, one without it cannot be stored.
+            if (nctId == null || nctId.isBlank()) {
+                throw new XMLStreamException("trial without nct_id");
+            }
+
+            final int exclusionStart = criteria == null ? -1 : exclusionStart(criteria);
+            final String inclusion = exclusionStart < 0 ? criteria : criteria.substring(0, exclusionStart);
+            final String exclusion = exclusionStart < 0 ? null : criteria.substring(exclusionStart);
+
+            return new Trial(nctId, criteria, inclusion, exclusion, summary, description, gender, minAge, maxAge,
+                    keywords);
+
+        } finally {
+            reader.close();
+            PARSE_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Find where the exclusion criteria start in a criteria text block, which lists them after the inclusion ones
+     * under an "Exclusion Criteria:" heading.
+     *
+     * @param criteria
+     *            the text block.
+     * @return offset of the heading, -1 if there is none.
+     */
+    static int exclusionStart(final String criteria) {
+        final Matcher matcher = EXCLUSION_HEADING.matcher(criteria);
+        return matcher.find() ? matcher.start() : -1;
+    }
+
+    /**
+     * Advance the reader to the end of the element it is positioned on, without materializing names or text.
+     *
+     * @param reader
+     *            reader positioned on a start element.
+     */
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Input stream over a reusable {@link ByteBuffer}, so no stream has to be allocated per file.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private ByteBuffer bytes;
+
+        void reset(final ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, bytes.remaining());
+            bytes.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return bytes.remaining();
+        }
+    }
+}
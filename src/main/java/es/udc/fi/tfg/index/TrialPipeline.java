@@ -0,0 +1,317 @@
+package es.udc.fi.tfg.index;
+
+import static es.udc.fi.tfg.util.Parameters.DOCS_PATH;
+import static es.udc.fi.tfg.util.Parameters.N_INDEXER_THREADS;
+import static es.udc.fi.tfg.util.Parameters.N_PARSER_THREADS;
+import static es.udc.fi.tfg.util.Parameters.PIPELINE_QUEUE_CAPACITY;
+import static es.udc.fi.tfg.util.Parameters.TRIAL_VECTORS_FILENAME;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.udc.fi.tfg.data.Trial;
+import es.udc.fi.tfg.util.VectorFile;
+
+/**
+ * Three stage indexing pipeline. A discovery stage walks the corpus and feeds every trial file into a bounded queue,
+ * a pool of {@link ParserThread}s turns files into {@link Trial}s and a pool of {@link IndexerThread}s adds them to
+ * the index. Bounded queues between the stages block the faster stage when the slower one falls behind, and files are
+ * handed out one at a time, so the load is balanced no matter how the corpus is split into folders.
+ * <p>
+ * The corpus may also be left as the zip archives it is distributed in. Every XML entry of an archive is queued like
+ * a file and inflated by the parser that takes it, so the archives are read once, in order, and inflated in parallel
+ * without extracting anything to disk.
+ */
+public class TrialPipeline {
+
+    /** Marks the end of the file queue. Compared by identity. */
+    static final TrialFile END_OF_FILES = new TrialFile(null, null, 0, 0);
+
+    private static final String ARCHIVE_SEPARATOR = "!/";
+
+    /** Marks the end of the trial queue. Compared by identity. */
+    static final ParsedTrial END_OF_TRIALS = new ParsedTrial(null, null);
+
+    private static final Logger logger = LoggerFactory.getLogger(TrialPipeline.class);
+
+    private final IndexWriter[] writers;
+    private final TrialManifest previous;
+    private final TrialManifest current = new TrialManifest();
+    private final Set<String> seenKeys = new HashSet<>();
+    private final List<ZipFile> archives = new ArrayList<>();
+    private final boolean update;
+
+    private final BlockingQueue<TrialFile> files = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+    private final BlockingQueue<ParsedTrial> trials = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+
+    private final StageStats discoveryStats = new StageStats("discovery");
+    private final StageStats parseStats = new StageStats("parse");
+    private final StageStats indexStats = new StageStats("index");
+
+    /**
+     * Create a pipeline that indexes the whole corpus.
+     *
+     * @param writer
+     *            writer of the index.
+     */
+    public TrialPipeline(final IndexWriter writer) {
+        this(new IndexWriter[] { writer }, new TrialManifest(), false);
+    }
+
+    /**
+     * Create a pipeline.
+     *
+     * @param writers
+     *            writer of every shard of the index.
+     * @param previous
+     *            manifest of the trials already in the index.
+     * @param update
+     *            if true, only files that are new or changed since the previous manifest are parsed, their trials
+     *            replace those with the same <code>nct_id</code> and trials whose file is gone are deleted.
+     */
+    public TrialPipeline(final IndexWriter[] writers, final TrialManifest previous, final boolean update) {
+        this.writers = writers;
+        this.previous = previous;
+        this.update = update;
+    }
+
+    /**
+     * Manifest of the trials held by the index once the pipeline has run, to be saved after the commit.
+     *
+     * @return the current manifest.
+     */
+    public TrialManifest getManifest() {
+        return current;
+    }
+
+    /**
+     * Index every trial file under the given folder, blocking until the last document has been handed to the writer.
+     *
+     * @param trialsDir
+     *            root folder of the corpus.
+     * @throws IOException
+     *             if the corpus could not be walked.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting for the workers. The index is left uncommitted.
+     */
+    public void run(final Path trialsDir) throws IOException, InterruptedException {
+
+        final long start = System.nanoTime();
+        final long startGcMillis = gcMillis();
+        // Only the trials being indexed have their vector read, an update reads a handful of them.
+        final VectorFile vectors = VectorFile.open(Path.of(DOCS_PATH, TRIAL_VECTORS_FILENAME));
+
+        final ExecutorService parsers = Executors.newFixedThreadPool(N_PARSER_THREADS);
+        final ExecutorService indexers = Executors.newFixedThreadPool(N_INDEXER_THREADS);
+
+        try (vectors) {
+            final List<Future<?>> parserTasks = new ArrayList<>();
+            for (int i = 0; i < N_PARSER_THREADS; i++) {
+                parserTasks.add(parsers.submit(new ParserThread(files, trials, parseStats)));
+            }
+
+            final List<Future<?>> indexerTasks = new ArrayList<>();
+            for (int i = 0; i < N_INDEXER_THREADS; i++) {
+                indexerTasks.add(indexers.submit(new IndexerThread(trials, writers, vectors, current, update,
+                        indexStats)));
+            }
+
+            // Discovery runs on the calling thread; the end markers are always sent so that no worker waits forever.
+            try {
+                discover(trialsDir);
+            } finally {
+                discoveryStats.finish(start);
+                for (int i = 0; i < N_PARSER_THREADS; i++) {
+                    files.put(END_OF_FILES);
+                }
+            }
+
+            await(parserTasks);
+            parseStats.finish(start);
+            closeArchives();
+
+            for (int i = 0; i < N_INDEXER_THREADS; i++) {
+                trials.put(END_OF_TRIALS);
+            }
+
+            await(indexerTasks);
+            indexStats.finish(start);
+
+            if (update) {
+                deleteRemoved();
+            }
+
+        } finally {
+            parsers.shutdownNow();
+            indexers.shutdownNow();
+            closeArchives();
+        }
+
+        discoveryStats.report(logger);
+        parseStats.report(logger);
+        indexStats.report(logger);
+
+        final long processed = indexStats.getProcessed();
+        if (processed > 0) {
+            logger.info("GC time {} ms per 10k trials", (gcMillis() - startGcMillis) * 10_000 / processed);
+        }
+    }
+
+    /**
+     * Walk the corpus folder and feed every XML file into the file queue.
+     *
+     * @param trialsDir
+     *            root folder of the corpus.
+     */
+    private void discover(final Path trialsDir) throws IOException, InterruptedException {
+
+        logger.info("Discovering trials under '{}'", trialsDir);
+
+        try {
+            Files.walkFileTree(trialsDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    final String name = file.getFileName().toString();
+                    final String key = trialsDir.relativize(file).toString().replace('\\', '/');
+
+                    try {
+                        if (name.endsWith(".xml")) {
+                            offer(new TrialFile(file, key, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                        } else if (name.endsWith(".zip")) {
+                            discoverArchive(file, key);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrupted while discovering trials");
+            }
+        }
+
+        if (update) {
+            logger.info("{} new or changed trial files, {} unchanged", discoveryStats.getProcessed(),
+                    seenKeys.size() - discoveryStats.getProcessed());
+        }
+    }
+
+    /**
+     * Queue every XML entry of a corpus archive, in the order they are stored. The archive stays open until the
+     * parsers are done with it.
+     *
+     * @param file
+     *            the archive.
+     * @param key
+     *            path of the archive relative to the corpus root.
+     */
+    private void discoverArchive(final Path file, final String key) throws IOException, InterruptedException {
+
+        final ZipFile archive = new ZipFile(file.toFile());
+        archives.add(archive);
+        logger.info("Reading archive '{}' with {} entries", key, archive.size());
+
+        final Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(".xml")) {
+                offer(new TrialFile(file, key + ARCHIVE_SEPARATOR + entry.getName(), entry.getSize(),
+                        entry.getTime(), archive, entry));
+            }
+        }
+    }
+
+    /**
+     * Queue a discovered trial file, unless the index already holds its current version.
+     *
+     * @param trialFile
+     *            the file.
+     */
+    private void offer(final TrialFile trialFile) throws InterruptedException {
+
+        seenKeys.add(trialFile.key());
+
+        final TrialManifest.Entry unchanged = update ? previous.unchanged(trialFile) : null;
+        if (unchanged != null) {
+            current.put(trialFile.key(), unchanged);
+            return;
+        }
+
+        files.put(trialFile);
+        discoveryStats.processed();
+    }
+
+    private void closeArchives() {
+        for (final ZipFile archive : archives) {
+            try {
+                archive.close();
+            } catch (final IOException e) {
+                logger.warn("Error closing archive '{}' - {}", archive.getName(), e.getMessage());
+            }
+        }
+        archives.clear();
+    }
+
+    /**
+     * Delete from the index the trials whose files are no longer in the corpus.
+     */
+    private void deleteRemoved() throws IOException {
+
+        final Set<String> removed = previous.removedTrials(current, seenKeys);
+
+        for (final String nctId : removed) {
+            writers[IndexShards.shardOf(nctId, writers.length)].deleteDocuments(new Term("nct_id", nctId));
+        }
+
+        logger.info("Deleted {} trials whose files were removed", removed.size());
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static void await(final List<Future<?>> tasks) throws InterruptedException {
+        for (final Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (final ExecutionException e) {
+                logger.error("Pipeline worker failed - {}", e.getCause().getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package es.udc.fi.tfg.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide registry of counters and latency histograms of the hot paths. Recording is lock free and allocation
+ * free, so it can be done for every file, document and query; the values are read through JMX while a run is in
+ * progress and exported as JSON at its end.
+ */
+public final class Metrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    private static final String OBJECT_NAME = "es.udc.fi.tfg:type=Metrics";
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Counter of the given name, created on first use. Callers keep the counter in a static field.
+     *
+     * @param name
+     *            name of the counter.
+     * @return the counter.
+     */
+    public static LongAdder counter(final String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Latency histogram of the given name, created on first use. Callers keep the histogram in a static field.
+     *
+     * @param name
+     *            name of the histogram.
+     * @return the histogram.
+     */
+    public static Histogram histogram(final String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Expose the registry as an MXBean, so it can be watched with JConsole or any JMX client during a run.
+     */
+    public static void registerMBean() {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (final JMException e) {
+            logger.warn("Metrics not registered in JMX - {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Write every metric as JSON.
+     *
+     * @param file
+     *            the output file.
+     */
+    public static void export(final Path file) {
+        try {
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (final Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write(toJson());
+            }
+            logger.info("Metrics written to '{}'", file);
+        } catch (final IOException e) {
+            logger.error("Error writing metrics to '{}' - {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Every metric as a JSON object, with histograms in milliseconds.
+     *
+     * @return the JSON.
+     */
+    public static String toJson() {
+
+        final StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        String separator = "\n";
+        for (final Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            json.append(separator).append("    \"").append(counter.getKey()).append("\": ")
+                    .append(counter.getValue().sum());
+            separator = ",\n";
+        }
+
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (final Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            json.append(separator).append("    \"").append(histogram.getKey()).append("\": ")
+                    .append(histogram.getValue().toJson());
+            separator = ",\n";
+        }
+
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * Latency histogram with eight buckets per power of two, so percentiles are within 12.5% of the recorded values.
+     * Thread safe.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+        }
+
+        public void record(final long nanos) {
+            final long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Record the time elapsed since a start.
+         *
+         * @param startNanos
+         *            start, from {@link System#nanoTime()}.
+         * @return the current time, to chain the next measurement.
+         */
+        public long recordSince(final long startNanos) {
+            final long now = System.nanoTime();
+            record(now - startNanos);
+            return now;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Latency at a percentile, as the upper bound of the bucket holding it.
+         *
+         * @param percentile
+         *            the percentile, between 0 and 100.
+         * @return the latency in nanoseconds, 0 if nothing was recorded.
+         */
+        public long percentile(final double percentile) {
+
+            final long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), lowerBound(i + 1) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        String toJson() {
+            final long n = count.sum();
+            return String.format(Locale.ROOT,
+                    "{\"count\": %d, \"total_ms\": %.3f, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p95_ms\": %.3f, "
+                            + "\"p99_ms\": %.3f, \"max_ms\": %.3f}",
+                    n, sum.sum() / 1e6, n == 0 ? 0 : sum.sum() / 1e6 / n, percentile(50) / 1e6,
+                    percentile(95) / 1e6, percentile(99) / 1e6, max.get() / 1e6);
+        }
+
+        private static int bucket(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+        }
+
+        private static long lowerBound(final int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            if (exponent >= 63) {
+                return Long.MAX_VALUE;
+            }
+            return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+        }
+    }
+
+    /**
+     * JMX view of the registry.
+     */
+    public interface MetricsMXBean {
+
+        Map<String, Long> getCounters();
+
+        Map<String, Double> getP99Millis();
+
+        String getJson();
+    }
+
+    private static final class MBean implements MetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            final Map<String, Long> counters = new TreeMap<>();
+            COUNTERS.forEach((name, counter) -> counters.put(name, counter.sum()));
+            return counters;
+        }
+
+        @Override
+        public Map<String, Double> getP99Millis() {
+            final Map<String, Double> latencies = new TreeMap<>();
+            HISTOGRAMS.forEach((name, histogram) -> latencies.put(name, histogram.percentile(99) / 1e6));
+            return latencies;
+        }
+
+        @Override
+        public String getJson() {
+            return toJson();
+        }
+    }
+}
@@ -1,20 +1,148 @@
 package es.udc.fi.tfg.util;
 
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.VectorSimilarityFunction;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 
+import es.udc.fi.tfg.eval.FusionMethod;
+import es.udc.fi.tfg.eval.RetrievalMode;
+import es.udc.fi.tfg.eval.metrics.Measure;
+import es.udc.fi.tfg.index.IndexSortOrder;
+import es.udc.fi.tfg.index.TrialFields;
+
 public record Parameters() {
 
     public static final String DOCS_PATH = "C:\\Users\\rnara\\Desktop\\TFG\\data";
     public static final String INDEX_PATH = "C:\\Users\\rnara\\Desktop\\TFG\\index";
     public static final String EVAL_FILENAME = "java_jm_0_9_u.txt";
     public static final String RUN_NAME = "JM_0_9";
+    // Counters and latency histograms of every run are exported here as JSON, and served over JMX meanwhile.
+    public static final String METRICS_PATH = "metrics";
 
     public static final int N_THREADS = Runtime.getRuntime().availableProcessors();
     public static final int TRIALS_PER_TOPIC = 1000;
+    public static final int METRICS_CUT = 10;
+    // Hits counted exactly before Lucene may skip non-competitive documents with block-max WAND. Lucene never counts
+    // fewer than the hits it returns, so this only shortens searches for fewer than TRIALS_PER_TOPIC trials, such as
+    // the top-k requests of the search service.
+    public static final int TOTAL_HITS_THRESHOLD = METRICS_CUT;
+    // Most informative description terms kept in the query, 0 to search the whole description.
+    public static final int QUERY_MAX_TERMS = 16;
+
+    // Indexing pipeline: parser and indexer pools, and capacity of the queues between stages.
+    public static final int N_PARSER_THREADS = Math.max(1, N_THREADS - N_THREADS / 4);
+    public static final int N_INDEXER_THREADS = Math.max(1, N_THREADS / 4);
+    public static final int PIPELINE_QUEUE_CAPACITY = 1024;
+
+    // IndexWriter profile. Without BULK_LOAD the writer keeps Lucene's defaults.
+    public static final boolean BULK_LOAD = true;
+    public static final int INDEX_BATCH_SIZE = 256;
+    public static final double RAM_BUFFER_MB = 1024;
+    public static final int MAX_BUFFERED_DOCS = -1; // IndexWriterConfig.DISABLE_AUTO_FLUSH, flush by RAM only
+    public static final int MERGE_THREADS = Math.max(1, N_THREADS / 2);
+    public static final int MERGE_SEGMENTS_PER_TIER = 10;
+    public static final int FORCE_MERGE_SEGMENTS = 1; // bulk load only, 0 to skip the final force merge
+    // Order of the documents in every segment of a new index. An update keeps the order the index was built with.
+    public static final IndexSortOrder INDEX_SORT = IndexSortOrder.NONE;
+
+    // Sharded index: trials are split by nct_id hash across N_SHARDS writers, under INDEX_PATH/shardN unless
+    // SHARD_PATHS lists one directory per shard. The RAM buffer and merge threads are split between the shards.
+    public static final int N_SHARDS = 1;
+    public static final String[] SHARD_PATHS = {};
+
+    // Evaluation: topics searched in parallel, optionally slicing every query across index segments too.
+    public static final int N_SEARCH_THREADS = N_THREADS;
+    public static final boolean USE_SEGMENT_SLICING = false;
+
+    // Warm-up before searching: index files preloaded into memory by extension (e.g. "tim", "tip", "doc", "dvd",
+    // "kdi", "kdd"; none to open them lazily), and patient descriptions under DOCS_PATH, one per line, searched
+    // WARMUP_ROUNDS times before the first real query. A missing file skips the replay.
+    public static final String[] PRELOAD_EXTENSIONS = {};
+    public static final String WARMUP_QUERIES_FILENAME = "warmup_queries.txt";
+    public static final int WARMUP_ROUNDS = 1;
+
+    // Pseudo-relevance feedback (RM3), enabled with USE_FEEDBACK: the term vectors of the top FEEDBACK_DOCS hits give
+    // FEEDBACK_TERMS expansion terms, and the topic is searched again scoring FEEDBACK_ORIGINAL_WEIGHT times the
+    // first-pass query plus the rest times the expansion. Past FEEDBACK_BUDGET_MS the first-pass hits are rescored.
+    public static final int FEEDBACK_DOCS = 10;
+    public static final int FEEDBACK_TERMS = 20;
+    public static final float FEEDBACK_ORIGINAL_WEIGHT = 0.5f;
+    public static final long FEEDBACK_BUDGET_MS = 50;
+
+    // Eligibility re-ranking, enabled with USE_CRITERIA_RERANK: the top RERANK_DEPTH hits are rescored by adding
+    // RERANK_INCLUSION_WEIGHT times the score of the description against the inclusion criteria and subtracting
+    // RERANK_EXCLUSION_PENALTY times its score against the exclusion criteria. A topic spends at most RERANK_BUDGET_MS
+    // on it, past which it keeps the first-stage ranking.
+    public static final int RERANK_DEPTH = 200;
+    public static final float RERANK_INCLUSION_WEIGHT = 0.5f;
+    public static final float RERANK_EXCLUSION_PENALTY = 0.5f;
+    public static final long RERANK_BUDGET_MS = 50;
+
+    // Dense retrieval: embeddings computed outside the JVM, under DOCS_PATH with one "id v1 v2 ..." line per trial
+    // (by nct_id) or topic (by number). Trial vectors are indexed in an HNSW graph linking every node to HNSW_M
+    // neighbours, chosen among HNSW_BEAM_WIDTH candidates. In HYBRID mode the lexical and kNN rankings are fused by
+    // reciprocal rank with constant HYBRID_RRF_K.
+    public static final String TRIAL_VECTORS_FILENAME = "trial_vectors.txt";
+    public static final String TOPIC_VECTORS_FILENAME = "topic_vectors.txt";
+    public static final VectorSimilarityFunction VECTOR_SIMILARITY = VectorSimilarityFunction.COSINE;
+    public static final int HNSW_M = 16;
+    public static final int HNSW_BEAM_WIDTH = 100;
+    public static final int HYBRID_RRF_K = 60;
+
+    // Medical synonyms and abbreviations expanded when analyzing trials and descriptions, in Solr format under
+    // DOCS_PATH ("t2dm, type 2 diabetes mellitus" per line). The dictionary is compiled once into an FST saved as
+    // SYNONYM_MAP_FILENAME next to it, and recompiled when it changes. Without it text is analyzed like
+    // StandardAnalyzer does. Changing the dictionary requires a full rebuild.
+    public static final String SYNONYMS_FILENAME = "synonyms.txt";
+    public static final String SYNONYM_MAP_FILENAME = "synonyms.fst";
+
+    // Search service: port, request threads and pending requests before the accepting thread runs them itself, and
+    // seconds between index refreshes.
+    public static final int SERVER_PORT = 8080;
+    public static final int N_SERVER_THREADS = N_THREADS;
+    public static final int SERVER_QUEUE_CAPACITY = 256;
+    public static final int SERVER_REFRESH_SECONDS = 60;
 
     public static final Similarity SIMILARITY = new LMJelinekMercerSimilarity(0.9f);
+    // Trial sections searched and their weights, a section of weight 0 is not searched. With a BM25 similarity the
+    // sections can be scored as one combined field instead of summing their separate scores.
+    public static final Map<String, Float> QUERY_FIELD_WEIGHTS = new TreeMap<>(Map.of(TrialFields.CRITERIA, 1f,
+            TrialFields.SUMMARY, 1f, TrialFields.DESCRIPTION, 1f, TrialFields.KEYWORDS, 1f));
+    public static final boolean USE_COMBINED_FIELDS = false;
+
+    // Similarity sweep: every value below becomes one run over the same open index.
+    public static final String SWEEP_PATH = "sweep";
+    public static final float[] SWEEP_JM_LAMBDAS = { 0.1f, 0.3f, 0.5f, 0.7f, 0.9f };
+    public static final float[] SWEEP_DIRICHLET_MUS = { 500f, 1000f, 2000f, 3000f };
+    public static final float[] SWEEP_BM25_K1S = { 0.9f, 1.2f, 1.5f };
+    public static final float[] SWEEP_BM25_BS = { 0.4f, 0.75f, 1.0f };
+    // Fusion of the sweep runs in memory, null to skip it: reciprocal rank fusion with constant FUSION_RRF_K,
+    // CombSUM or CombMNZ of min-max normalized scores, or their interpolation with equal weights.
+    public static final FusionMethod SWEEP_FUSION = FusionMethod.RRF;
+    public static final int FUSION_RRF_K = 60;
+    // Paired tests of every configuration against the best one on a per-topic measure: t-test, permutation test and
+    // bootstrap interval of the mean difference, with SIGNIFICANCE_ITERATIONS resamples from a fixed seed.
+    public static final Measure SIGNIFICANCE_MEASURE = Measure.NDCG;
+    public static final int SIGNIFICANCE_ITERATIONS = 100_000;
+    public static final double SIGNIFICANCE_CONFIDENCE = 0.95;
+    public static final long SIGNIFICANCE_SEED = 42;
 
     public static boolean USE_QUERY_FILTER = true;
+    // Demographic filters are computed once per reader and reused by every topic with the same gender and age.
+    public static boolean USE_FILTER_CACHE = true;
     public static boolean INDEX_KEYWORDS = true;
+    // Frequency-only term vectors of the text fields, read by the feedback stage instead of re-analyzing the trials.
+    // USE_FEEDBACK needs an index built with them; without them feedback keeps the first-pass ranking.
+    public static boolean INDEX_TERM_VECTORS = false;
+    public static boolean USE_FEEDBACK = false;
+    // Inclusion and exclusion criteria indexed again as fields of their own, on top of the whole criteria section.
+    // USE_CRITERIA_RERANK needs an index built with them; without them the re-ranking keeps the first-pass ranking.
+    public static boolean INDEX_CRITERIA_SECTIONS = false;
+    public static boolean USE_CRITERIA_RERANK = false;
+    public static RetrievalMode RETRIEVAL_MODE = RetrievalMode.LEXICAL;
+    // Only reindex trial files that changed since the last run, instead of rebuilding the whole index.
+    public static boolean UPDATE_INDEX = false;
 }
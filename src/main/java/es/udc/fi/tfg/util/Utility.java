@@ -1,27 +1,88 @@
 package es.udc.fi.tfg.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Utility {
 
+    public static final int UNKNOWN_AGE = -1;
+
+    // The corpus only holds a few hundred distinct age strings, the bound only guards against unexpected input.
+    private static final int MAX_MEMOIZED_AGES = 10_000;
+    private static final Map<String, Integer> AGE_MONTHS = new ConcurrentHashMap<>();
+
+    private static final String[] AGE_UNITS = { "year", "month", "week", "day", "hour", "minute" };
+    private static final double[] MONTHS_PER_UNIT = { 12, 1, 12.0 / 52, 12.0 / 365, 12.0 / (365 * 24),
+            12.0 / (365 * 24 * 60) };
+
     public static double normalizeAge(final String age) {
+        final double months = parseAgeMonths(age);
+        return months < 0 ? -1 : months / 12;
+    }
 
-        if (age != null) {
+    /**
+     * Age in whole months of an age such as "18 Years", "6 months" or "28 days". Results are memoized.
+     *
+     * @param age
+     *            the age, in any case.
+     * @return the age in months, rounded down, or {@link #UNKNOWN_AGE} if it has no recognized unit.
+     */
+    public static int ageInMonths(final String age) {
 
-            final Pattern pattern = Pattern.compile("(\\d+)\\s+(year|month|week)s?");
-            final Matcher matcher = pattern.matcher(age);
+        if (age == null) {
+            return UNKNOWN_AGE;
+        }
 
-            if (matcher.find()) {
-                final double value = Double.parseDouble(matcher.group(1));
-                final String unit = matcher.group(2);
+        final Integer cached = AGE_MONTHS.get(age);
+        if (cached != null) {
+            return cached;
+        }
+
+        final double months = parseAgeMonths(age);
+        // Tolerate rounding errors of the unit conversion before truncating.
+        final int result = months < 0 ? UNKNOWN_AGE : (int) Math.floor(months + 1e-9);
+
+        if (AGE_MONTHS.size() < MAX_MEMOIZED_AGES) {
+            AGE_MONTHS.put(age, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Scan the first "number unit" pair of an age string without regular expressions.
+     *
+     * @return the age in months, or -1 if none is found.
+     */
+    private static double parseAgeMonths(final String age) {
+
+        if (age == null) {
+            return -1;
+        }
+
+        final int length = age.length();
+        int i = 0;
+
+        while (i < length) {
+            if (!Character.isDigit(age.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            long value = 0;
+            while (i < length && Character.isDigit(age.charAt(i))) {
+                value = value * 10 + (age.charAt(i) - '0');
+                i++;
+            }
+
+            while (i < length && Character.isWhitespace(age.charAt(i))) {
+                i++;
+            }
 
-                return switch (unit) {
-                case "year" -> value;
-                case "month" -> value / 12; // Considering 1 year = 12 months
-                case "week" -> value / 52; // Considering 1 year = 52 weeks
-                default -> -1;
-                };
+            for (int unit = 0; unit < AGE_UNITS.length; unit++) {
+                if (age.regionMatches(true, i, AGE_UNITS[unit], 0, AGE_UNITS[unit].length())) {
+                    return value * MONTHS_PER_UNIT[unit];
+                }
             }
         }
 
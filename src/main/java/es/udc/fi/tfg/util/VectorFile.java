@@ -0,0 +1,246 @@
+package es.udc.fi.tfg.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reader of precomputed embeddings. Every line holds an id followed by the components of its vector, separated by
+ * whitespace, and every vector of a file has the same dimension. Embeddings are computed outside the JVM, this class
+ * only reads them. A small file is read whole with {@link #load}; a file with a vector per trial is opened with
+ * {@link #open}, which only keeps where the line of every id starts and parses a vector when it is asked for. Thread
+ * safe.
+ */
+public final class VectorFile implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VectorFile.class);
+
+    // Lines are located by their offset and length packed in a long, which bounds the length of a line.
+    private static final int LENGTH_BITS = 24;
+    private static final long MAX_LINE_LENGTH = (1L << LENGTH_BITS) - 1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<String, Long> lines;
+    private final int dimension;
+
+    private VectorFile(final Path file, final FileChannel channel, final Map<String, Long> lines,
+            final int dimension) {
+        this.file = file;
+        this.channel = channel;
+        this.lines = lines;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Read the vectors of a file.
+     *
+     * @param file
+     *            the vector file.
+     * @return the vectors by lowercased id, empty if the file does not exist.
+     * @throws IOException
+     *             if the file could not be read or a line is malformed.
+     */
+    public static Map<String, float[]> load(final Path file) throws IOException {
+
+        final Map<String, float[]> vectors = new HashMap<>();
+        if (!Files.exists(file)) {
+            logger.info("No vectors at '{}'", file);
+            return vectors;
+        }
+
+        final long start = System.currentTimeMillis();
+        int dimension = -1;
+        int lineNumber = 0;
+
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final String[] tokens = line.trim().split("\\s+");
+                if (dimension < 0) {
+                    dimension = tokens.length - 1;
+                }
+                vectors.put(tokens[0].toLowerCase(),
+                        parse(tokens, dimension, String.format("line %d of '%s'", lineNumber, file)));
+            }
+        }
+
+        logger.info("Read {} vectors of dimension {} from '{}' in {} ms", vectors.size(), dimension, file,
+                System.currentTimeMillis() - start);
+        return vectors;
+    }
+
+    /**
+     * Open a vector file for lookups. Only the ids are read, the vectors stay in the file until {@link #get} parses
+     * them, so the heap holds an entry per id instead of every vector.
+     *
+     * @param file
+     *            the vector file.
+     * @return the open file, with no vectors if it does not exist.
+     * @throws IOException
+     *             if the file could not be read or a line is too long.
+     */
+    public static VectorFile open(final Path file) throws IOException {
+
+        if (!Files.exists(file)) {
+            logger.info("No vectors at '{}'", file);
+            return new VectorFile(file, null, Map.of(), 0);
+        }
+
+        final long start = System.currentTimeMillis();
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final Map<String, Long> lines = index(file, channel);
+
+            // The dimension is that of the first line, the others are checked when they are read.
+            int dimension = 0;
+            final long first = lines.values().stream().mapToLong(Long::longValue).min().orElse(-1);
+            if (first >= 0) {
+                dimension = tokens(file, channel, first).length - 1;
+            }
+
+            logger.info("Indexed {} vectors of dimension {} in '{}' in {} ms", lines.size(), dimension, file,
+                    System.currentTimeMillis() - start);
+            return new VectorFile(file, channel, lines, dimension);
+
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Locate the line of every id in the file.
+     *
+     * @return the offset and length of every line, packed, by lowercased id.
+     */
+    private static Map<String, Long> index(final Path file, final FileChannel channel) throws IOException {
+
+        final Map<String, Long> lines = new HashMap<>();
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        final StringBuilder id = new StringBuilder();
+
+        long position = 0;
+        long lineStart = 0;
+        // Whether the id of the current line has been read entirely.
+        boolean idRead = false;
+
+        while (true) {
+            buffer.clear();
+            final boolean eof = channel.read(buffer) < 0;
+            buffer.flip();
+            if (eof && !buffer.hasRemaining()) {
+                break;
+            }
+
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (b == '\n') {
+                    addLine(file, lines, id, lineStart, position - lineStart);
+                    id.setLength(0);
+                    idRead = false;
+                    lineStart = position + 1;
+                } else if (!idRead) {
+                    if (!Character.isWhitespace(b)) {
+                        id.append((char) b);
+                    } else if (id.length() > 0) {
+                        idRead = true;
+                    }
+                }
+                position++;
+            }
+        }
+        addLine(file, lines, id, lineStart, position - lineStart);
+        return lines;
+    }
+
+    private static void addLine(final Path file, final Map<String, Long> lines, final StringBuilder id,
+            final long offset, final long length) throws IOException {
+        if (id.length() == 0) {
+            return;
+        }
+        if (length > MAX_LINE_LENGTH) {
+            throw new IOException(String.format("vector of '%s' in '%s' has %d bytes, at most %d are supported", id,
+                    file, length, MAX_LINE_LENGTH));
+        }
+        lines.put(id.toString().toLowerCase(), offset << LENGTH_BITS | length);
+    }
+
+    /**
+     * Read the vector of an id.
+     *
+     * @param id
+     *            the id, in any case.
+     * @return its vector, null if the file has none.
+     * @throws IOException
+     *             if the line could not be read or is malformed.
+     */
+    public float[] get(final String id) throws IOException {
+        final Long line = lines.get(id.toLowerCase());
+        if (line == null) {
+            return null;
+        }
+        return parse(tokens(file, channel, line), dimension, String.format("vector of '%s' in '%s'", id, file));
+    }
+
+    /**
+     * @return number of vectors of the file.
+     */
+    public int size() {
+        return lines.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static String[] tokens(final Path file, final FileChannel channel, final long line) throws IOException {
+        final long offset = line >>> LENGTH_BITS;
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (line & MAX_LINE_LENGTH));
+        // Positional reads leave the channel untouched, so concurrent lookups need no lock.
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException(String.format("'%s' was truncated after it was opened", file));
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8).trim().split("\\s+");
+    }
+
+    private static float[] parse(final String[] tokens, final int dimension, final String where) throws IOException {
+
+        if (tokens.length - 1 != dimension || dimension == 0) {
+            throw new IOException(String.format("%s has %d components, expected %d", where, tokens.length - 1,
+                    dimension));
+        }
+
+        final float[] vector = new float[dimension];
+        try {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = Float.parseFloat(tokens[i + 1]);
+            }
+        } catch (final NumberFormatException e) {
+            throw new IOException(String.format("%s - %s", where, e.getMessage()));
+        }
+        return vector;
+    }
+}